@@ -0,0 +1,349 @@
+package com.smc.pdfutil.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Apply one operation to a whole batch of PDFs inside a single JVM. Files are processed on a work-stealing pool, and
+ * PDFs with more pages than {@link BatchSpec#getPageRangeSize()} are read or captured as several page range subtasks
+ * so that a huge file does not stall one worker. The subtasks of a file share at most one parsed document per worker,
+ * each taking the next unprocessed range until none is left.
+ * <p>
+ * Every finished file is appended to a report in the output directory. Running the same batch again skips the files
+ * that are already reported as done and have not changed since (same size and modification time), so a crashed run
+ * can be resumed. Outputs are moved into place only when complete.
+ * <p>
+ * Outputs are named after the input file name without its directory, so the input files of one batch must have
+ * distinct names, compared ignoring case.
+ */
+public class BatchService {
+	private static final Logger log = LoggerFactory.getLogger(BatchService.class);
+
+	public static final String REPORT_NAME = "batch-report.tsv";
+	public static final String STATUS_OK = "OK";
+	public static final String STATUS_FAILED = "FAILED";
+	public static final String STATUS_SKIPPED = "SKIPPED";
+
+	private interface Output {
+		void write(OutputStream outputStream) throws IOException;
+	}
+
+	private interface RangeWork {
+		void run(PdfSession session, int rangeIdx, int[] pages) throws IOException;
+	}
+
+	/**
+	 * Apply the operation to every PDF in the directory
+	 * @param inputDir Directory of the input PDFs
+	 * @param spec Operation and its parameters
+	 * @param outputDir Directory of the outputs and the report
+	 * @return Status of each input file
+	 * @throws IOException if the directories or the report cannot be accessed
+	 */
+	public static Map<File, String> run(File inputDir, BatchSpec spec, File outputDir) throws IOException {
+		File[] files = inputDir.listFiles((dir, name) -> name.toLowerCase(Locale.ROOT).endsWith(".pdf"));
+		if (files == null) {
+			throw new IOException("Cannot list input directory: " + inputDir);
+		}
+		Arrays.sort(files);
+		return run(Arrays.asList(files), spec, outputDir);
+	}
+
+	/**
+	 * Apply the operation to every PDF in the list
+	 * @param inputFiles Input PDFs
+	 * @param spec Operation and its parameters
+	 * @param outputDir Directory of the outputs and the report
+	 * @return Status of each input file
+	 * @throws IOException if the output directory or the report cannot be accessed
+	 * @throws IllegalArgumentException if two input files have the same name, their outputs would overwrite each other
+	 */
+	public static Map<File, String> run(List<File> inputFiles, BatchSpec spec, File outputDir) throws IOException {
+		log.info("Running batch");
+		log.debug("Params: operation={}, files={}, parallelism={}", spec.getOperation(), inputFiles.size(), spec.getParallelism());
+		Set<String> names = new HashSet<>();
+		for (File file : inputFiles) {
+			if (!names.add(outputName(file).toLowerCase(Locale.ROOT))) {
+				throw new IllegalArgumentException("Duplicate input file name: " + file);
+			}
+		}
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IOException("Cannot create output directory: " + outputDir);
+		}
+		File reportFile = new File(outputDir, REPORT_NAME);
+		Set<String> completed = readCompleted(reportFile);
+
+		Map<File, String> statuses = Collections.synchronizedMap(new LinkedHashMap<>());
+		List<FileTask> tasks = new ArrayList<>();
+		for (File file : inputFiles) {
+			if (completed.contains(resumeKey(file.getAbsolutePath(), file.length(), file.lastModified()))) {
+				statuses.put(file, STATUS_SKIPPED);
+			} else {
+				statuses.put(file, null);
+			}
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(spec.getParallelism());
+		try (Writer report = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportFile, true), StandardCharsets.UTF_8))) {
+			for (File file : inputFiles) {
+				if (statuses.get(file) == null) {
+					tasks.add(new FileTask(file, spec, outputDir, report, statuses));
+				}
+			}
+			pool.invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+		log.debug("Batch finished: statuses={}", statuses);
+		return statuses;
+	}
+
+	private static Set<String> readCompleted(File reportFile) throws IOException {
+		Set<String> completed = new HashSet<>();
+		if (!reportFile.isFile()) {
+			return completed;
+		}
+		for (String line : Files.readAllLines(reportFile.toPath(), StandardCharsets.UTF_8)) {
+			String[] fields = line.split("\t");
+			if (fields.length >= 5 && STATUS_OK.equals(fields[1])) {
+				try {
+					completed.add(resumeKey(fields[0], Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+				} catch (NumberFormatException e) {
+					log.warn("Ignoring malformed batch report line: {}", line);
+				}
+			}
+		}
+		return completed;
+	}
+
+	/**
+	 * @return Base name of the outputs of the file, the file name without the .pdf extension
+	 */
+	private static String outputName(File file) {
+		return file.getName().replaceFirst("(?i)\\.pdf$", "");
+	}
+
+	private static String resumeKey(String path, long size, long lastModified) {
+		return path + "\t" + size + "\t" + lastModified;
+	}
+
+	private static class FileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final File file;
+		private final BatchSpec spec;
+		private final File outputDir;
+		private final Writer report;
+		private final Map<File, String> statuses;
+
+		FileTask(File file, BatchSpec spec, File outputDir, Writer report, Map<File, String> statuses) {
+			this.file = file;
+			this.spec = spec;
+			this.outputDir = outputDir;
+			this.report = report;
+			this.statuses = statuses;
+		}
+
+		@Override
+		protected void compute() {
+			long start = System.currentTimeMillis();
+			// Taken before processing, so a file changed while it is processed is not reported as done
+			long size = file.length();
+			long lastModified = file.lastModified();
+			String status = STATUS_OK;
+			String message = "";
+			try {
+				process();
+			} catch (IOException | RuntimeException e) {
+				log.error("Batch file {} Exception: ", file, e);
+				status = STATUS_FAILED;
+				message = String.valueOf(e.getMessage()).replaceAll("[\t\r\n]", " ");
+			}
+			statuses.put(file, status);
+			synchronized (report) {
+				try {
+					report.write(file.getAbsolutePath() + "\t" + status + "\t" + (System.currentTimeMillis() - start)
+							+ "\t" + size + "\t" + lastModified + "\t" + message + "\n");
+					report.flush();
+				} catch (IOException e) {
+					log.error("Writing batch report Exception: ", e);
+				}
+			}
+		}
+
+		private void process() throws IOException {
+			String name = outputName(file);
+			switch (spec.getOperation()) {
+				case READ:
+					read(new File(outputDir, name + ".txt"));
+					break;
+				case CAPTURE:
+					capture(name);
+					break;
+				case SPLIT:
+					writeAtomically(new File(outputDir, name + ".split.pdf"), os -> {
+						try (InputStream is = new FileInputStream(file)) {
+							PdfService.split(is, spec.getPwd(), spec.getPagesIdx(), os);
+						}
+					});
+					break;
+				case WATERMARK:
+					writeAtomically(new File(outputDir, name + ".watermark.pdf"), os -> {
+						try (InputStream is = new FileInputStream(file);
+							 InputStream watermarkStream = new FileInputStream(spec.getWatermarkFile())) {
+							PdfService.watermark(is, spec.getPwd(), watermarkStream, spec.getWatermarkPwd(), os);
+						}
+					});
+					break;
+				case ENCRYPT:
+					writeAtomically(new File(outputDir, name + ".encrypt.pdf"), os -> {
+						try (InputStream is = new FileInputStream(file)) {
+							PdfService.encrypt(is, spec.getPwd(), spec.getOwnerPwd(), spec.getUserPwd(), os);
+						}
+					});
+					break;
+				case COMPRESS:
+					File zip = new File(outputDir, name + ".zip");
+					File tmp = File.createTempFile(zip.getName(), ".tmp", outputDir);
+					try {
+						CompressService.compress(Collections.singletonList(file), tmp);
+						Files.move(tmp.toPath(), zip.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					} finally {
+						Files.deleteIfExists(tmp.toPath());
+					}
+					break;
+				default:
+					throw new IllegalArgumentException("Unsupported operation: " + spec.getOperation());
+			}
+		}
+
+		private void read(File output) throws IOException {
+			try (PdfSession session = open(file, spec.getPwd())) {
+				List<int[]> ranges = ranges(allPages(session.getPageCount()));
+				String[] texts = new String[ranges.size()];
+				runRanges(session, ranges, (rangeSession, rangeIdx, pages) ->
+						texts[rangeIdx] = rangeSession.read(pages[0], pages[pages.length - 1]));
+				StringBuilder text = new StringBuilder();
+				for (String rangeText : texts) {
+					text.append(rangeText);
+				}
+				writeAtomically(output, os -> os.write(text.toString().getBytes(StandardCharsets.UTF_8)));
+			}
+		}
+
+		private void capture(String name) throws IOException {
+			try (PdfSession session = open(file, spec.getPwd())) {
+				int[] pages = spec.getPagesIdx() == null ? allPages(session.getPageCount()) : spec.getPagesIdx();
+				runRanges(session, ranges(pages), (rangeSession, rangeIdx, rangePages) -> {
+					for (int pageIdx : rangePages) {
+						writeAtomically(new File(outputDir, name + "-" + pageIdx + ".png"), os -> rangeSession.capture(pageIdx, spec.getDpi(), os));
+					}
+				});
+			}
+		}
+
+		/**
+		 * Process the ranges on up to parallelism workers. The first worker reuses the given session, the others parse
+		 * the file once each.
+		 */
+		private void runRanges(PdfSession session, List<int[]> ranges, RangeWork work) {
+			AtomicInteger next = new AtomicInteger();
+			List<RangeTask> subtasks = new ArrayList<>();
+			for (int i = 0; i < Math.min(spec.getParallelism(), ranges.size()); i++) {
+				subtasks.add(new RangeTask(file, spec.getPwd(), i == 0 ? session : null, ranges, next, work));
+			}
+			invokeAll(subtasks);
+		}
+
+		private int[] allPages(int pageCount) {
+			int[] pages = new int[pageCount];
+			for (int i = 0; i < pageCount; i++) {
+				pages[i] = i;
+			}
+			return pages;
+		}
+
+		private List<int[]> ranges(int[] pages) {
+			List<int[]> ranges = new ArrayList<>();
+			for (int i = 0; i < pages.length; i += spec.getPageRangeSize()) {
+				ranges.add(Arrays.copyOfRange(pages, i, Math.min(i + spec.getPageRangeSize(), pages.length)));
+			}
+			return ranges;
+		}
+	}
+
+	private static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final File file;
+		private final String pwd;
+		private final PdfSession session;
+		private final List<int[]> ranges;
+		private final AtomicInteger next;
+		private final RangeWork work;
+
+		RangeTask(File file, String pwd, PdfSession session, List<int[]> ranges, AtomicInteger next, RangeWork work) {
+			this.file = file;
+			this.pwd = pwd;
+			this.session = session;
+			this.ranges = ranges;
+			this.next = next;
+			this.work = work;
+		}
+
+		@Override
+		protected void compute() {
+			PdfSession own = null;
+			try {
+				for (int rangeIdx = next.getAndIncrement(); rangeIdx < ranges.size(); rangeIdx = next.getAndIncrement()) {
+					if (session == null && own == null) {
+						own = open(file, pwd);
+					}
+					work.run(session != null ? session : own, rangeIdx, ranges.get(rangeIdx));
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				if (own != null) {
+					try {
+						own.close();
+					} catch (IOException e) {
+						log.warn("Closing PDF session of {} failed", file, e);
+					}
+				}
+			}
+		}
+	}
+
+	private static PdfSession open(File file, String pwd) throws IOException {
+		try (InputStream is = new FileInputStream(file)) {
+			return new PdfSession(is, pwd);
+		}
+	}
+
+	private static void writeAtomically(File target, Output output) throws IOException {
+		File tmp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		try {
+			try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp))) {
+				output.write(os);
+			}
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp.toPath());
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.smc.pdfutil.service;
+
+import java.io.File;
+
+/**
+ * Operation and parameters applied by {@link BatchService} to every PDF of a batch
+ */
+public class BatchSpec {
+	public enum Operation { READ, SPLIT, WATERMARK, ENCRYPT, CAPTURE, COMPRESS }
+
+	public static final int DEF_PAGE_RANGE_SIZE = 50;
+	public static final float DEF_DPI = 150f;
+
+	private final Operation operation;
+	private String pwd;
+	private int[] pagesIdx;
+	private File watermarkFile;
+	private String watermarkPwd;
+	private String ownerPwd;
+	private String userPwd;
+	private float dpi = DEF_DPI;
+	private int pageRangeSize = DEF_PAGE_RANGE_SIZE;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * @param operation Operation to apply on every PDF
+	 */
+	public BatchSpec(Operation operation) {
+		this.operation = operation;
+	}
+
+	public Operation getOperation() {
+		return operation;
+	}
+
+	public String getPwd() {
+		return pwd;
+	}
+
+	/**
+	 * @param pwd Password to decrypt the input PDFs
+	 */
+	public void setPwd(String pwd) {
+		this.pwd = pwd;
+	}
+
+	public int[] getPagesIdx() {
+		return pagesIdx;
+	}
+
+	/**
+	 * @param pagesIdx Index of pages subjected to split, or to capture (all pages are captured if null)
+	 */
+	public void setPagesIdx(int[] pagesIdx) {
+		this.pagesIdx = pagesIdx;
+	}
+
+	public File getWatermarkFile() {
+		return watermarkFile;
+	}
+
+	/**
+	 * @param watermarkFile Watermark PDF
+	 * @param watermarkPwd Password to decrypt the watermark PDF
+	 */
+	public void setWatermark(File watermarkFile, String watermarkPwd) {
+		this.watermarkFile = watermarkFile;
+		this.watermarkPwd = watermarkPwd;
+	}
+
+	public String getWatermarkPwd() {
+		return watermarkPwd;
+	}
+
+	public String getOwnerPwd() {
+		return ownerPwd;
+	}
+
+	public String getUserPwd() {
+		return userPwd;
+	}
+
+	/**
+	 * @param ownerPwd New password to decrypt the output PDFs in owner level
+	 * @param userPwd New password to decrypt the output PDFs in user level
+	 */
+	public void setEncryption(String ownerPwd, String userPwd) {
+		this.ownerPwd = ownerPwd;
+		this.userPwd = userPwd;
+	}
+
+	public float getDpi() {
+		return dpi;
+	}
+
+	/**
+	 * @param dpi The DPI of captured images
+	 */
+	public void setDpi(float dpi) {
+		this.dpi = dpi;
+	}
+
+	public int getPageRangeSize() {
+		return pageRangeSize;
+	}
+
+	/**
+	 * @param pageRangeSize Maximum number of pages read or captured by one task, larger PDFs are split into page ranges
+	 */
+	public void setPageRangeSize(int pageRangeSize) {
+		this.pageRangeSize = Math.max(pageRangeSize, 1);
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism Number of worker threads, default to the number of processors
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(parallelism, 1);
+	}
+}
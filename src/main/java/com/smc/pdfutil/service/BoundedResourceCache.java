@@ -0,0 +1,143 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.pdmodel.ResourceCache;
+import org.apache.pdfbox.pdmodel.documentinterchange.markedcontent.PDPropertyList;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.pattern.PDAbstractPattern;
+import org.apache.pdfbox.pdmodel.graphics.shading.PDShading;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ResourceCache that keeps parsed fonts, color spaces, images and other resources of a document with strong
+ * references, so they stay warm between pages. Each kind of resource is bounded to the given number of entries and
+ * the least recently used entry is evicted first.
+ */
+class BoundedResourceCache implements ResourceCache {
+	private final Lru<PDFont> fonts;
+	private final Lru<PDColorSpace> colorSpaces;
+	private final Lru<PDExtendedGraphicsState> extGStates;
+	private final Lru<PDShading> shadings;
+	private final Lru<PDAbstractPattern> patterns;
+	private final Lru<PDPropertyList> properties;
+	private final Lru<PDXObject> xObjects;
+
+	BoundedResourceCache(int maxEntries) {
+		fonts = new Lru<>(maxEntries);
+		colorSpaces = new Lru<>(maxEntries);
+		extGStates = new Lru<>(maxEntries);
+		shadings = new Lru<>(maxEntries);
+		patterns = new Lru<>(maxEntries);
+		properties = new Lru<>(maxEntries);
+		xObjects = new Lru<>(maxEntries);
+	}
+
+	@Override
+	public synchronized PDFont getFont(COSObject indirect) {
+		return fonts.get(indirect);
+	}
+
+	@Override
+	public synchronized PDColorSpace getColorSpace(COSObject indirect) {
+		return colorSpaces.get(indirect);
+	}
+
+	@Override
+	public synchronized PDExtendedGraphicsState getExtGState(COSObject indirect) {
+		return extGStates.get(indirect);
+	}
+
+	@Override
+	public synchronized PDShading getShading(COSObject indirect) {
+		return shadings.get(indirect);
+	}
+
+	@Override
+	public synchronized PDAbstractPattern getPattern(COSObject indirect) {
+		return patterns.get(indirect);
+	}
+
+	@Override
+	public synchronized PDPropertyList getProperties(COSObject indirect) {
+		return properties.get(indirect);
+	}
+
+	@Override
+	public synchronized PDXObject getXObject(COSObject indirect) {
+		return xObjects.get(indirect);
+	}
+
+	@Override
+	public synchronized void put(COSObject indirect, PDFont font) {
+		fonts.put(indirect, font);
+	}
+
+	@Override
+	public synchronized void put(COSObject indirect, PDColorSpace colorSpace) {
+		colorSpaces.put(indirect, colorSpace);
+	}
+
+	@Override
+	public synchronized void put(COSObject indirect, PDExtendedGraphicsState extGState) {
+		extGStates.put(indirect, extGState);
+	}
+
+	@Override
+	public synchronized void put(COSObject indirect, PDShading shading) {
+		shadings.put(indirect, shading);
+	}
+
+	@Override
+	public synchronized void put(COSObject indirect, PDAbstractPattern pattern) {
+		patterns.put(indirect, pattern);
+	}
+
+	@Override
+	public synchronized void put(COSObject indirect, PDPropertyList propertyList) {
+		properties.put(indirect, propertyList);
+	}
+
+	@Override
+	public synchronized void put(COSObject indirect, PDXObject xobject) {
+		xObjects.put(indirect, xobject);
+	}
+
+	/**
+	 * @return Number of cached resources of all kinds
+	 */
+	synchronized int size() {
+		return fonts.size() + colorSpaces.size() + extGStates.size() + shadings.size()
+				+ patterns.size() + properties.size() + xObjects.size();
+	}
+
+	synchronized void clear() {
+		fonts.clear();
+		colorSpaces.clear();
+		extGStates.clear();
+		shadings.clear();
+		patterns.clear();
+		properties.clear();
+		xObjects.clear();
+	}
+
+	private static class Lru<V> extends LinkedHashMap<COSObject, V> {
+		private static final long serialVersionUID = 1L;
+
+		private final int maxEntries;
+
+		Lru(int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<COSObject, V> eldest) {
+			return size() > maxEntries;
+		}
+	}
+}
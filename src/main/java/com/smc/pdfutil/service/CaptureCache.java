@@ -0,0 +1,175 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache in front of {@link PdfService#capture} so that repeated captures of the same page cost a lookup instead of a
+ * full parse and render. Entries are keyed by the SHA-256 of the PDF content and password plus page index, DPI and
+ * capture area, so a render of an encrypted PDF is only served to callers that supply the same password.
+ * Rendered images are kept in an LRU memory tier and optionally in a disk tier that survives restarts, each bounded
+ * by total size, see {@link TieredStore}.
+ */
+public class CaptureCache {
+	private static final Logger log = LoggerFactory.getLogger(CaptureCache.class);
+
+	/**
+	 * Default maximum total size (byte) of images kept on disk
+	 */
+	public static final long DEF_MAX_DISK_BYTES = 1024L * 1024 * 1024;
+
+	private final TieredStore store;
+
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Create a memory only cache
+	 * @param maxMemoryBytes Maximum total size (byte) of images kept in memory
+	 */
+	public CaptureCache(long maxMemoryBytes) {
+		this.store = new TieredStore(maxMemoryBytes, TieredStore.NO_TTL);
+	}
+
+	/**
+	 * Create a cache with both memory and disk tier, keeping at most {@link #DEF_MAX_DISK_BYTES} on disk
+	 * @param maxMemoryBytes Maximum total size (byte) of images kept in memory
+	 * @param diskDir Directory to persist the images, null to disable the disk tier
+	 * @throws IOException if the directory cannot be created
+	 */
+	public CaptureCache(long maxMemoryBytes, File diskDir) throws IOException {
+		this(maxMemoryBytes, diskDir, DEF_MAX_DISK_BYTES);
+	}
+
+	/**
+	 * Create a cache with both memory and disk tier
+	 * @param maxMemoryBytes Maximum total size (byte) of images kept in memory
+	 * @param diskDir Directory to persist the images, null to disable the disk tier
+	 * @param maxDiskBytes Maximum total size (byte) of images kept on disk, the oldest are deleted first
+	 * @throws IOException if the directory cannot be created
+	 */
+	public CaptureCache(long maxMemoryBytes, File diskDir, long maxDiskBytes) throws IOException {
+		this.store = new TieredStore("capture", maxMemoryBytes, diskDir, ".png", maxDiskBytes, TieredStore.NO_TTL);
+	}
+
+	/**
+	 * Capture the whole page of the PDF and convert into image(png), served from cache when possible
+	 * @param inputStream InputStream to the PDF
+	 * @param pageIdx Index of page to capture
+	 * @param dpi The DPI of the output image
+	 * @param outputStream OutputStream to the output image(png)
+	 * @throws IOException if the PDF is not valid
+	 */
+	public void capture(InputStream inputStream, int pageIdx, float dpi, OutputStream outputStream) throws IOException {
+		capture(inputStream, null, pageIdx, -1, -1, -1, -1, dpi, outputStream);
+	}
+
+	/**
+	 * Capture the whole page of the PDF and convert into image(png), served from cache when possible
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @param pageIdx Index of page to capture
+	 * @param dpi The DPI of the output image
+	 * @param outputStream OutputStream to the output image(png)
+	 * @throws IOException if the PDF is not valid
+	 */
+	public void capture(InputStream inputStream, String pwd, int pageIdx, float dpi, OutputStream outputStream) throws IOException {
+		capture(inputStream, pwd, pageIdx, -1, -1, -1, -1, dpi, outputStream);
+	}
+
+	/**
+	 * Capture the specified area of the PDF and convert into image(png), served from cache when possible
+	 * @param inputStream InputStream to the PDF
+	 * @param pageIdx Index of page to capture
+	 * @param x X coordinate (inch) of the capture area, starting from upper-left corner
+	 * @param y Y coordinate (inch) of the capture area, starting from upper-left corner
+	 * @param width Width (inch) of the capture area
+	 * @param height Height (inch) of the capture area
+	 * @param dpi The DPI of the output image
+	 * @param outputStream OutputStream to the output image(png)
+	 * @throws IOException if the PDF is not valid
+	 */
+	public void capture(InputStream inputStream, int pageIdx, float x, float y, float width, float height, float dpi, OutputStream outputStream) throws IOException {
+		capture(inputStream, null, pageIdx, x, y, width, height, dpi, outputStream);
+	}
+
+	/**
+	 * Capture the specified area of the PDF and convert into image(png), served from cache when possible
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @param pageIdx Index of page to capture
+	 * @param x X coordinate (inch) of the capture area, starting from upper-left corner
+	 * @param y Y coordinate (inch) of the capture area, starting from upper-left corner
+	 * @param width Width (inch) of the capture area
+	 * @param height Height (inch) of the capture area
+	 * @param dpi The DPI of the output image
+	 * @param outputStream OutputStream to the output image(png)
+	 * @throws IOException if the PDF is not valid
+	 */
+	public void capture(InputStream inputStream, String pwd, int pageIdx, float x, float y, float width, float height, float dpi, OutputStream outputStream) throws IOException {
+		byte[] pdf = IOUtils.toByteArray(inputStream);
+		String key = Hashes.sha256(pdf) + ":" + TieredStore.passwordKey(pwd) + ":" + pageIdx + ":" + dpi + ":" + area(x, y, width, height);
+
+		byte[] png = store.getMemory(key);
+		if (png != null) {
+			memoryHits.incrementAndGet();
+		} else if ((png = store.getDisk(key)) != null) {
+			diskHits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			PdfService.capture(new ByteArrayInputStream(pdf), pwd, pageIdx, x, y, width, height, dpi, buffer);
+			png = buffer.toByteArray();
+			store.put(key, png);
+		}
+		log.debug("Capture cache: key={}, hits={}, diskHits={}, misses={}", key, memoryHits.get(), diskHits.get(), misses.get());
+		outputStream.write(png);
+	}
+
+	/**
+	 * Remove all entries from the memory tier
+	 */
+	public void clear() {
+		store.clearMemory();
+	}
+
+	public long getHitCount() {
+		return memoryHits.get();
+	}
+
+	public long getDiskHitCount() {
+		return diskHits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return Ratio of requests served from either tier, 0 if no request has been made
+	 */
+	public double getHitRatio() {
+		long hits = memoryHits.get() + diskHits.get();
+		long total = hits + misses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * @return Total size (byte) of images kept in memory
+	 */
+	public long getMemoryBytes() {
+		return store.getMemoryBytes();
+	}
+
+	private static String area(float x, float y, float width, float height) {
+		if (x >= 0 && y >= 0 && width > 0 && height > 0) {
+			return x + "," + y + "," + width + "," + height;
+		}
+		return "full";
+	}
+}
@@ -0,0 +1,310 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Visual diff of two PDFs. Corresponding pages are rendered on several worker threads and their pixel buffers are
+ * compared directly. Each worker opens its own {@link PdfSession} of both PDFs and pulls the next page index from a
+ * shared counter, so pages are compared roughly in order and the comparison can stop as soon as enough different pages
+ * are found.
+ */
+public class CompareService {
+	private static final Logger log = LoggerFactory.getLogger(CompareService.class);
+
+	private static final float IMG_DPI = 96f;
+	private static final int DIFF_RGB = 0xff0000;
+
+	/**
+	 * Comparison result of one page
+	 */
+	public static class PageDiff {
+		private final int pageIdx;
+		private final double score;
+		private final BufferedImage diffImage;
+
+		PageDiff(int pageIdx, double score, BufferedImage diffImage) {
+			this.pageIdx = pageIdx;
+			this.score = score;
+			this.diffImage = diffImage;
+		}
+
+		public int getPageIdx() {
+			return pageIdx;
+		}
+
+		/**
+		 * @return Ratio of different pixels, 1 if the page size differs or the page exists in one PDF only
+		 */
+		public double getScore() {
+			return score;
+		}
+
+		/**
+		 * @return Image of the first PDF with the different pixels marked red, null if not requested or not comparable
+		 */
+		public BufferedImage getDiffImage() {
+			return diffImage;
+		}
+	}
+
+	/**
+	 * Comparison result of the two PDFs
+	 */
+	public static class Result {
+		private final List<PageDiff> pages;
+		private final int diffPageCount;
+		private final boolean stoppedEarly;
+
+		Result(List<PageDiff> pages, int diffPageCount, boolean stoppedEarly) {
+			this.pages = pages;
+			this.diffPageCount = diffPageCount;
+			this.stoppedEarly = stoppedEarly;
+		}
+
+		/**
+		 * @return Compared pages ordered by page index, pages skipped after an early stop are not included
+		 */
+		public List<PageDiff> getPages() {
+			return pages;
+		}
+
+		/**
+		 * @return Number of pages whose score is above the threshold
+		 */
+		public int getDiffPageCount() {
+			return diffPageCount;
+		}
+
+		public boolean isIdentical() {
+			return diffPageCount == 0;
+		}
+
+		/**
+		 * @return Whether some pages were not compared because enough different pages were found
+		 */
+		public boolean isStoppedEarly() {
+			return stoppedEarly;
+		}
+	}
+
+	private final int parallelism;
+	private float dpi = IMG_DPI;
+	private int tolerance = 0;
+	private double threshold = 0;
+	private int maxDiffPages = 1;
+	private boolean diffImages = false;
+
+	/**
+	 * @param parallelism Number of worker threads
+	 */
+	public CompareService(int parallelism) {
+		this.parallelism = Math.max(parallelism, 1);
+	}
+
+	/**
+	 * @param dpi The DPI of the rendered pages
+	 */
+	public void setDpi(float dpi) {
+		this.dpi = dpi;
+	}
+
+	/**
+	 * @param tolerance Maximum difference (0 - 255) of each color channel for two pixels to be regarded the same
+	 */
+	public void setTolerance(int tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param threshold Score (ratio of different pixels) above which a page is regarded different
+	 */
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * @param maxDiffPages Number of different pages after which the comparison stops, 0 to compare all pages
+	 */
+	public void setMaxDiffPages(int maxDiffPages) {
+		this.maxDiffPages = maxDiffPages;
+	}
+
+	/**
+	 * @param diffImages Whether to produce a diff image for each different page
+	 */
+	public void setDiffImages(boolean diffImages) {
+		this.diffImages = diffImages;
+	}
+
+	/**
+	 * Compare two PDFs page by page
+	 * @param inputStream1 InputStream to the first PDF
+	 * @param inputStream2 InputStream to the second PDF
+	 * @return Comparison result
+	 * @throws IOException if a PDF is not valid
+	 */
+	public Result compare(InputStream inputStream1, InputStream inputStream2) throws IOException {
+		return compare(inputStream1, null, inputStream2, null);
+	}
+
+	/**
+	 * Compare two PDFs page by page
+	 * @param inputStream1 InputStream to the first PDF
+	 * @param pwd1 Password to decrypt the first PDF
+	 * @param inputStream2 InputStream to the second PDF
+	 * @param pwd2 Password to decrypt the second PDF
+	 * @return Comparison result
+	 * @throws IOException if a PDF is not valid
+	 */
+	public Result compare(InputStream inputStream1, String pwd1, InputStream inputStream2, String pwd2) throws IOException {
+		log.info("Comparing PDF");
+		log.debug("Params: parallelism={}, dpi={}, tolerance={}, threshold={}, maxDiffPages={}, diffImages={}",
+				parallelism, dpi, tolerance, threshold, maxDiffPages, diffImages);
+		byte[] pdf1 = IOUtils.toByteArray(inputStream1);
+		byte[] pdf2 = IOUtils.toByteArray(inputStream2);
+		int pageCount1;
+		int pageCount2;
+		try (PdfSession session1 = new PdfSession(new ByteArrayInputStream(pdf1), pwd1);
+			 PdfSession session2 = new PdfSession(new ByteArrayInputStream(pdf2), pwd2)) {
+			pageCount1 = session1.getPageCount();
+			pageCount2 = session2.getPageCount();
+		}
+		int commonPages = Math.min(pageCount1, pageCount2);
+
+		AtomicInteger nextPage = new AtomicInteger();
+		AtomicInteger diffPages = new AtomicInteger();
+		AtomicBoolean stop = new AtomicBoolean();
+		Queue<PageDiff> diffs = new ConcurrentLinkedQueue<>();
+		// pages that exist in one PDF only are different without rendering
+		for (int i = commonPages; i < Math.max(pageCount1, pageCount2); i++) {
+			diffs.add(new PageDiff(i, 1, null));
+			diffPages.incrementAndGet();
+		}
+		if (maxDiffPages > 0 && diffPages.get() >= maxDiffPages) {
+			stop.set(true);
+		}
+
+		int workerNum = Math.min(parallelism, Math.max(commonPages, 1));
+		ExecutorService pool = Executors.newFixedThreadPool(workerNum);
+		List<Future<Void>> futures = new ArrayList<>();
+		try {
+			for (int w = 0; w < workerNum; w++) {
+				futures.add(pool.submit(() -> {
+					try (PdfSession session1 = new PdfSession(new ByteArrayInputStream(pdf1), pwd1);
+						 PdfSession session2 = new PdfSession(new ByteArrayInputStream(pdf2), pwd2)) {
+						for (int i; !stop.get() && (i = nextPage.getAndIncrement()) < commonPages;) {
+							PageDiff diff = comparePage(i, session1.render(i, dpi), session2.render(i, dpi));
+							diffs.add(diff);
+							if (diff.getScore() > threshold && diffPages.incrementAndGet() >= maxDiffPages && maxDiffPages > 0) {
+								stop.set(true);
+							}
+						}
+					} catch (IOException | RuntimeException e) {
+						// the other workers stop at their next page instead of rendering the rest for nothing
+						stop.set(true);
+						throw e;
+					}
+					return null;
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Comparing PDF interrupted");
+		} catch (ExecutionException e) {
+			stop.set(true);
+			IOException cause = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+			log.error("Comparing PDF Exception: ", cause);
+			throw cause;
+		} finally {
+			pool.shutdown();
+		}
+
+		List<PageDiff> pages = new ArrayList<>(diffs);
+		pages.sort(Comparator.comparingInt(PageDiff::getPageIdx));
+		int diffPageCount = 0;
+		for (PageDiff page : pages) {
+			if (page.getScore() > threshold) {
+				diffPageCount++;
+			}
+		}
+		boolean stoppedEarly = pages.size() < Math.max(pageCount1, pageCount2);
+		log.debug("Compared PDF: pages={}, compared={}, diffPages={}, stoppedEarly={}", Math.max(pageCount1, pageCount2),
+				pages.size(), diffPageCount, stoppedEarly);
+		return new Result(pages, diffPageCount, stoppedEarly);
+	}
+
+	private PageDiff comparePage(int pageIdx, BufferedImage img1, BufferedImage img2) {
+		int width = img1.getWidth();
+		int height = img1.getHeight();
+		if (width != img2.getWidth() || height != img2.getHeight()) {
+			return new PageDiff(pageIdx, 1, null);
+		}
+		int[] pixels1 = pixels(img1);
+		int[] pixels2 = pixels(img2);
+		int[] diffPixels = null;
+		long count = 0;
+		for (int i = 0; i < pixels1.length; i++) {
+			if (pixels1[i] != pixels2[i] && !withinTolerance(pixels1[i], pixels2[i])) {
+				count++;
+				if (diffImages) {
+					if (diffPixels == null) {
+						diffPixels = new int[pixels1.length];
+						for (int j = 0; j < pixels1.length; j++) {
+							diffPixels[j] = fade(pixels1[j]);
+						}
+					}
+					diffPixels[i] = DIFF_RGB;
+				}
+			}
+		}
+		double score = (double) count / pixels1.length;
+		BufferedImage diffImage = null;
+		if (diffPixels != null && score > threshold) {
+			diffImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			diffImage.setRGB(0, 0, width, height, diffPixels, 0, width);
+		}
+		return new PageDiff(pageIdx, score, diffImage);
+	}
+
+	private static int[] pixels(BufferedImage img) {
+		if (img.getType() == BufferedImage.TYPE_INT_RGB && img.getRaster().getDataBuffer() instanceof DataBufferInt) {
+			return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+		}
+		return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+	}
+
+	private boolean withinTolerance(int rgb1, int rgb2) {
+		for (int shift = 0; shift <= 16; shift += 8) {
+			if (Math.abs(((rgb1 >> shift) & 0xff) - ((rgb2 >> shift) & 0xff)) > tolerance) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Lighten the pixel so that the marked differences stand out
+	 */
+	private static int fade(int rgb) {
+		int r = 192 + ((rgb >> 16) & 0xff) / 4;
+		int g = 192 + ((rgb >> 8) & 0xff) / 4;
+		int b = 192 + (rgb & 0xff) / 4;
+		return (r << 16) | (g << 8) | b;
+	}
+}
@@ -1,6 +1,5 @@
 package com.smc.pdfutil.service;
 
-import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveException;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
@@ -32,7 +31,7 @@ public class CompressService {
 
     private static void compress(List<File> inputFiles, ZipArchiveOutputStream zipStream) throws IOException {
         for (File inputFile: inputFiles) {
-            ArchiveEntry entry = zipStream.createArchiveEntry(inputFile, inputFile.getName());
+            ZipArchiveEntry entry = zipStream.createArchiveEntry(inputFile, inputFile.getName());
             zipStream.putArchiveEntry(entry);
             if (inputFile.isFile()) {
                 try (FileInputStream inputStream = new FileInputStream(inputFile)) {
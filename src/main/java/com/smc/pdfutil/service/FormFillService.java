@@ -0,0 +1,325 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.multipdf.PDFCloneUtility;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
+import org.apache.pdfbox.pdmodel.interactive.form.PDField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Fill a form template (AcroForm) for a stream of records, e.g. a mail merge. Each worker thread parses the template
+ * once and encodes the signature image once; every record is then produced by cloning the parsed objects into a new
+ * document, so shared fonts and images are copied as already encoded streams instead of being parsed or embedded again.
+ */
+public class FormFillService {
+	private static final Logger log = LoggerFactory.getLogger(FormFillService.class);
+
+	/**
+	 * Destination of the filled PDF of each record. It is called from the worker threads, and the returned OutputStream
+	 * is closed after the record is written.
+	 */
+	public interface RecordOutput {
+		/**
+		 * @param recordIdx Index of the record in the stream
+		 * @return OutputStream to the output PDF of the record
+		 * @throws IOException if the output cannot be opened
+		 */
+		OutputStream open(int recordIdx) throws IOException;
+	}
+
+	private interface RecordTask {
+		PDDocument fill(Worker worker, int recordIdx, Map<String, String> record) throws IOException;
+	}
+
+	private interface Merge {
+		void append(PDDocument doc) throws IOException;
+	}
+
+	private final byte[] template;
+	private final String pwd;
+	private final int parallelism;
+	private boolean flatten = false;
+	private BufferedImage signature;
+	private int signaturePageIdx;
+	private float signatureX;
+	private float signatureY;
+	private float signatureWidth;
+	private float signatureHeight;
+
+	/**
+	 * @param templateStream InputStream to the form template PDF
+	 * @param pwd Password to decrypt the template
+	 * @param parallelism Number of worker threads
+	 * @throws IOException if the template cannot be read
+	 */
+	public FormFillService(InputStream templateStream, String pwd, int parallelism) throws IOException {
+		this.template = IOUtils.toByteArray(templateStream);
+		this.pwd = pwd;
+		this.parallelism = Math.max(parallelism, 1);
+	}
+
+	/**
+	 * @param flatten Whether the filled fields are flattened into page content
+	 */
+	public void setFlatten(boolean flatten) {
+		this.flatten = flatten;
+	}
+
+	/**
+	 * Place the signature image on every filled PDF
+	 * @param imgStream InputStream to the image
+	 * @param pageIdx Index of the page to draw the image
+	 * @param x X coordinate (inch) of the drawing position, starting from upper-left corner
+	 * @param y Y coordinate (inch) of the drawing position, starting from upper-left corner
+	 * @param width Width (inch) of the image, negative to fit the rest of the page
+	 * @param height Height (inch) of the image, negative to fit the rest of the page
+	 * @throws IOException if the image is not valid
+	 */
+	public void setSignature(InputStream imgStream, int pageIdx, float x, float y, float width, float height) throws IOException {
+		BufferedImage img = ImageIO.read(imgStream);
+		if (img == null) {
+			throw new IOException("Unsupported signature image");
+		}
+		this.signature = img;
+		this.signaturePageIdx = pageIdx;
+		this.signatureX = x;
+		this.signatureY = y;
+		this.signatureWidth = width;
+		this.signatureHeight = height;
+	}
+
+	/**
+	 * Fill the template for every record and write one PDF per record
+	 * @param records Field values of each record, keyed by fully qualified field name
+	 * @param output Destination of the PDF of each record
+	 * @return Number of records filled
+	 * @throws IOException if the template or a record is not valid
+	 */
+	public int fill(Stream<Map<String, String>> records, RecordOutput output) throws IOException {
+		log.info("Filling form per record");
+		return run(records, (worker, recordIdx, record) -> {
+			try (PDDocument doc = worker.fill(record);
+				 OutputStream outputStream = output.open(recordIdx)) {
+				PdfService.save(doc, outputStream);
+			}
+			return null;
+		}, null);
+	}
+
+	/**
+	 * Fill the template for every record and merge all filled PDFs into one, in record order. Fonts and images that
+	 * every record copies from the template (or the signature image) are written once and shared by all pages.
+	 * @param records Field values of each record, keyed by fully qualified field name
+	 * @param outputStream OutputStream to the merged PDF
+	 * @return Number of records filled
+	 * @throws IOException if the template or a record is not valid
+	 */
+	public int fill(Stream<Map<String, String>> records, OutputStream outputStream) throws IOException {
+		log.info("Filling form into merged PDF");
+		try (PDDocument dest = new PDDocument()) {
+			PDFMergerUtility merger = new PDFMergerUtility();
+			Map<String, COSBase> shared = new HashMap<>();
+			int count = run(records, (worker, recordIdx, record) -> worker.fill(record), doc -> {
+				int pageIdx = dest.getNumberOfPages();
+				merger.appendDocument(dest, doc);
+				Set<COSBase> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+				for (; pageIdx < dest.getNumberOfPages(); pageIdx++) {
+					share(dest.getPage(pageIdx).getResources().getCOSObject(), shared, visited);
+				}
+			});
+			PdfService.save(dest, outputStream);
+			return count;
+		}
+	}
+
+	private int run(Stream<Map<String, String>> records, RecordTask task, Merge merge) throws IOException {
+		log.debug("Params: parallelism={}, flatten={}, signature={}", parallelism, flatten, signature != null);
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		List<Worker> workers = Collections.synchronizedList(new ArrayList<>());
+		ThreadLocal<Worker> local = new ThreadLocal<>();
+		Deque<Future<PDDocument>> window = new ArrayDeque<>();
+		int count = 0;
+		try {
+			for (Iterator<Map<String, String>> i = records.iterator(); i.hasNext();) {
+				Map<String, String> record = i.next();
+				int recordIdx = count++;
+				window.add(pool.submit(() -> {
+					Worker worker = local.get();
+					if (worker == null) {
+						worker = new Worker();
+						workers.add(worker);
+						local.set(worker);
+					}
+					return task.fill(worker, recordIdx, record);
+				}));
+				if (window.size() >= parallelism * 2) {
+					complete(window.poll(), merge);
+				}
+			}
+			while (!window.isEmpty()) {
+				complete(window.poll(), merge);
+			}
+		} catch (IOException e) {
+			log.error("Filling form Exception: ", e);
+			throw(e);
+		} finally {
+			pool.shutdown();
+			for (Future<PDDocument> future : window) {
+				closeQuietly(future);
+			}
+			for (Worker worker : workers) {
+				try {
+					worker.close();
+				} catch (IOException e) {
+					log.warn("Closing form template failed", e);
+				}
+			}
+		}
+		log.debug("Filled form: records={}, workers={}", count, workers.size());
+		return count;
+	}
+
+	private static void complete(Future<PDDocument> future, Merge merge) throws IOException {
+		PDDocument doc;
+		try {
+			doc = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Filling form interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		if (doc != null) {
+			try {
+				merge.append(doc);
+			} finally {
+				doc.close();
+			}
+		}
+	}
+
+	/**
+	 * Replace the fonts and images of the resources, and of the forms they use, with equal ones already merged. The
+	 * merger clones every record on its own, so without this each record would bring its own copy of them.
+	 * @param resources Resources of a merged page
+	 * @param shared First merged font or image of each fingerprint
+	 * @param visited Resources already processed
+	 * @throws IOException if a resource cannot be decoded
+	 */
+	private static void share(COSDictionary resources, Map<String, COSBase> shared, Set<COSBase> visited) throws IOException {
+		if (resources == null || !visited.add(resources)) {
+			return;
+		}
+		for (COSName category : Arrays.asList(COSName.FONT, COSName.XOBJECT)) {
+			COSDictionary dict = resources.getCOSDictionary(category);
+			if (dict == null) {
+				continue;
+			}
+			for (COSName name : new ArrayList<>(dict.keySet())) {
+				COSBase resource = dict.getDictionaryObject(name);
+				if (!(resource instanceof COSDictionary)) {
+					continue;
+				}
+				COSName subtype = ((COSDictionary) resource).getCOSName(COSName.SUBTYPE);
+				if (COSName.FORM.equals(subtype)) {
+					share(((COSDictionary) resource).getCOSDictionary(COSName.RESOURCES), shared, visited);
+				} else if (COSName.FONT.equals(category) || COSName.IMAGE.equals(subtype)) {
+					COSBase first = shared.putIfAbsent(PageFingerprint.of(resource), resource);
+					if (first != null && first != resource) {
+						dict.setItem(name, first);
+					}
+				}
+			}
+		}
+	}
+
+	private static void closeQuietly(Future<PDDocument> future) {
+		try {
+			PDDocument doc = future.get();
+			if (doc != null) {
+				doc.close();
+			}
+		} catch (Exception e) {
+			log.debug("Discarding unfinished record: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Template and signature image parsed once for one worker thread
+	 */
+	private class Worker implements Closeable {
+		private final PDDocument doc;
+		private final PDImageXObject signatureImg;
+
+		Worker() throws IOException {
+			doc = PDDocument.load(template, pwd);
+			signatureImg = signature == null ? null : LosslessFactory.createFromImage(doc, signature);
+		}
+
+		PDDocument fill(Map<String, String> record) throws IOException {
+			COSDocument cosDoc = new COSDocument();
+			PDDocument dest = new PDDocument(cosDoc);
+			try {
+				PDFCloneUtility cloner = new PDFCloneUtility(dest);
+				COSDictionary trailer = new COSDictionary();
+				trailer.setItem(COSName.ROOT, cloner.cloneForNewDocument(doc.getDocumentCatalog()));
+				trailer.setItem(COSName.INFO, cloner.cloneForNewDocument(doc.getDocumentInformation()));
+				cosDoc.setTrailer(trailer);
+				dest.setVersion(doc.getVersion());
+
+				PDAcroForm form = dest.getDocumentCatalog().getAcroForm();
+				if (form == null && !record.isEmpty()) {
+					throw new IOException("Template has no form");
+				}
+				for (Map.Entry<String, String> entry : record.entrySet()) {
+					PDField field = form.getField(entry.getKey());
+					if (field == null) {
+						throw new IOException("Unknown form field: " + entry.getKey());
+					}
+					field.setValue(entry.getValue());
+				}
+				if (flatten && form != null) {
+					form.flatten();
+				}
+				if (signatureImg != null) {
+					PDImageXObject img = new PDImageXObject(new PDStream((COSStream) cloner.cloneForNewDocument(signatureImg)), null);
+					PdfService.drawImage(dest, dest.getPage(signaturePageIdx), img,
+							signatureX, signatureY, signatureWidth, signatureHeight);
+				}
+				return dest;
+			} catch (IOException | RuntimeException e) {
+				dest.close();
+				throw e;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			doc.close();
+		}
+	}
+}
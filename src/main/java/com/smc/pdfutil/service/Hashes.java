@@ -0,0 +1,55 @@
+package com.smc.pdfutil.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 helpers shared by the caches, page fingerprints and incremental processing
+ */
+final class Hashes {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private Hashes() {
+	}
+
+	/**
+	 * @return New SHA-256 digest, which every JVM is required to support
+	 */
+	static MessageDigest newSha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param data Data to hash
+	 * @return Hex encoded SHA-256 of the data
+	 */
+	static String sha256(byte[] data) {
+		return hex(newSha256().digest(data));
+	}
+
+	/**
+	 * @param str String to hash
+	 * @return Hex encoded SHA-256 of the UTF-8 bytes of the string
+	 */
+	static String sha256(String str) {
+		return sha256(str.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param digest Bytes to encode
+	 * @return Lower case hex string of the bytes
+	 */
+	static String hex(byte[] digest) {
+		char[] chars = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			chars[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[digest[i] & 0xf];
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,269 @@
+package com.smc.pdfutil.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reprocess a re-uploaded document page by page, reusing the text and renders of every page whose fingerprint (see
+ * {@link PdfSession#fingerprint(int)}) is already in the cache directory. Only changed pages are extracted or rendered.
+ * <p>
+ * Page outputs are stored by fingerprint under {@code pages/}, so identical pages are also shared between documents.
+ * The fingerprints of the last run of each document are stored under {@code docs/}, to tell which pages changed.
+ * The page outputs are bounded by total size; after each document the least recently used outputs are deleted, except
+ * those of that document.
+ */
+public class IncrementalService {
+	private static final Logger log = LoggerFactory.getLogger(IncrementalService.class);
+
+	private static final String PAGE_DIR = "pages";
+	private static final String DOC_DIR = "docs";
+
+	public static final long DEF_MAX_PAGE_BYTES = 1024L * 1024 * 1024;
+
+	private final File pageDir;
+	private final File docDir;
+	private final long maxPageBytes;
+	private long pageBytes = 0;
+
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+
+	/**
+	 * @param cacheDir Directory of the cached page outputs and fingerprints
+	 * @throws IOException if the directory cannot be created
+	 */
+	public IncrementalService(File cacheDir) throws IOException {
+		this(cacheDir, DEF_MAX_PAGE_BYTES);
+	}
+
+	/**
+	 * @param cacheDir Directory of the cached page outputs and fingerprints
+	 * @param maxPageBytes Maximum total size (byte) of the cached page outputs
+	 * @throws IOException if the directory cannot be created
+	 */
+	public IncrementalService(File cacheDir, long maxPageBytes) throws IOException {
+		this.pageDir = new File(cacheDir, PAGE_DIR);
+		this.docDir = new File(cacheDir, DOC_DIR);
+		this.maxPageBytes = maxPageBytes;
+		for (File dir : new File[] {pageDir, docDir}) {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Cannot create cache directory: " + dir);
+			}
+		}
+		for (File file : pageFiles()) {
+			pageBytes += file.length();
+		}
+	}
+
+	/**
+	 * Read the text of each page, reusing the text of unchanged pages
+	 * @param docName Name of the document, e.g. its upload path
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @return Text of each page
+	 * @throws IOException if the PDF is not valid
+	 */
+	public List<String> read(String docName, InputStream inputStream, String pwd) throws IOException {
+		log.info("Reading PDF incrementally");
+		log.debug("Params: docName={}", docName);
+		try (PdfSession session = new PdfSession(inputStream, pwd)) {
+			List<String> fingerprints = fingerprint(session);
+			List<String> texts = new ArrayList<>();
+			Set<File> files = new HashSet<>();
+			for (int i = 0; i < fingerprints.size(); i++) {
+				File file = new File(pageDir, fingerprints.get(i) + ".txt");
+				byte[] text = reuse(file);
+				if (text == null) {
+					processed.incrementAndGet();
+					text = session.read(i, i).getBytes(StandardCharsets.UTF_8);
+					writePage(file, text);
+				}
+				texts.add(new String(text, StandardCharsets.UTF_8));
+				files.add(file);
+			}
+			saveFingerprints(docName, fingerprints);
+			evictPages(files);
+			return texts;
+		} catch (IOException e) {
+			log.error("Reading PDF incrementally Exception: ", e);
+			throw(e);
+		}
+	}
+
+	/**
+	 * Capture each page into image(png), reusing the images of unchanged pages
+	 * @param docName Name of the document, e.g. its upload path
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @param dpi The DPI of the output images
+	 * @return Image(png) file of each page in the cache directory
+	 * @throws IOException if the PDF is not valid
+	 */
+	public List<File> capture(String docName, InputStream inputStream, String pwd, float dpi) throws IOException {
+		log.info("Capturing PDF incrementally");
+		log.debug("Params: docName={}, dpi={}", docName, dpi);
+		try (PdfSession session = new PdfSession(inputStream, pwd)) {
+			List<String> fingerprints = fingerprint(session);
+			List<File> images = new ArrayList<>();
+			for (int i = 0; i < fingerprints.size(); i++) {
+				File file = new File(pageDir, fingerprints.get(i) + "-" + dpi + ".png");
+				if (file.isFile() && file.setLastModified(System.currentTimeMillis())) {
+					reused.incrementAndGet();
+				} else {
+					processed.incrementAndGet();
+					ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+					ImageIO.write(session.render(i, dpi), "PNG", buffer);
+					writePage(file, buffer.toByteArray());
+				}
+				images.add(file);
+			}
+			saveFingerprints(docName, fingerprints);
+			evictPages(new HashSet<>(images));
+			return images;
+		} catch (IOException e) {
+			log.error("Capturing PDF incrementally Exception: ", e);
+			throw(e);
+		}
+	}
+
+	/**
+	 * Compare the pages with the last processed version of the document
+	 * @param docName Name of the document
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @return Indexes of the pages whose fingerprint differs from the same page of the last version, all pages if the
+	 * document has not been processed yet
+	 * @throws IOException if the PDF is not valid
+	 */
+	public List<Integer> changedPages(String docName, InputStream inputStream, String pwd) throws IOException {
+		List<String> fingerprints = PdfService.fingerprint(inputStream, pwd);
+		List<String> previous = loadFingerprints(docName);
+		List<Integer> changed = new ArrayList<>();
+		for (int i = 0; i < fingerprints.size(); i++) {
+			if (i >= previous.size() || !previous.get(i).equals(fingerprints.get(i))) {
+				changed.add(i);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * @return Number of pages extracted or rendered
+	 */
+	public long getProcessedCount() {
+		return processed.get();
+	}
+
+	/**
+	 * @return Number of pages served from the cache directory
+	 */
+	public long getReusedCount() {
+		return reused.get();
+	}
+
+	/**
+	 * @return Total size (byte) of the cached page outputs
+	 */
+	public synchronized long getPageBytes() {
+		return pageBytes;
+	}
+
+	private static List<String> fingerprint(PdfSession session) throws IOException {
+		List<String> fingerprints = new ArrayList<>();
+		for (int i = 0; i < session.getPageCount(); i++) {
+			fingerprints.add(session.fingerprint(i));
+		}
+		return fingerprints;
+	}
+
+	private File docFile(String docName) {
+		return new File(docDir, Hashes.sha256(docName) + ".fp");
+	}
+
+	private List<String> loadFingerprints(String docName) throws IOException {
+		File file = docFile(docName);
+		if (!file.isFile()) {
+			return Collections.emptyList();
+		}
+		return Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+	}
+
+	private void saveFingerprints(String docName, List<String> fingerprints) throws IOException {
+		write(docFile(docName), String.join("\n", fingerprints).getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Read a cached page output and mark it as recently used
+	 * @return Content of the output, null if not cached
+	 */
+	private byte[] reuse(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			byte[] data = Files.readAllBytes(file.toPath());
+			file.setLastModified(System.currentTimeMillis());
+			reused.incrementAndGet();
+			return data;
+		} catch (IOException e) {
+			// evicted by a concurrent call
+			return null;
+		}
+	}
+
+	private void writePage(File file, byte[] data) throws IOException {
+		synchronized (this) {
+			long oldLength = file.length();
+			write(file, data);
+			pageBytes += data.length - oldLength;
+		}
+	}
+
+	/**
+	 * Delete the least recently used page outputs until the total size is within the limit
+	 * @param keep Outputs of the current document, never deleted
+	 */
+	private synchronized void evictPages(Set<File> keep) {
+		if (pageBytes <= maxPageBytes) {
+			return;
+		}
+		File[] files = pageFiles();
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			if (pageBytes <= maxPageBytes) {
+				break;
+			}
+			long length = file.length();
+			if (!keep.contains(file) && file.delete()) {
+				pageBytes -= length;
+			}
+		}
+		log.debug("Evicted page outputs: pageBytes={}, maxPageBytes={}", pageBytes, maxPageBytes);
+	}
+
+	private File[] pageFiles() {
+		File[] files = pageDir.listFiles((dir, name) -> !name.endsWith(".tmp"));
+		return files == null ? new File[0] : files;
+	}
+
+	private void write(File file, byte[] data) throws IOException {
+		File tmp = File.createTempFile("incremental", ".tmp", file.getParentFile());
+		try {
+			Files.write(tmp.toPath(), data);
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp.toPath());
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * SHA-256 fingerprint of what a page looks like, computed from its content streams, resources, annotations and page
+ * boxes without rendering. Streams are hashed in decoded form, so re-compressing a document keeps the fingerprints;
+ * image codecs (DCT, JPX, JBIG2, CCITT) are not decoded. Back references such as /Parent and the structure tree keys
+ * are ignored, and references to other pages, e.g. link destinations, are hashed as a placeholder, so the fingerprint
+ * of a page does not change when other pages change.
+ */
+final class PageFingerprint {
+	private static final List<String> STOP_FILTERS = Arrays.asList(COSName.DCT_DECODE.getName(),
+			COSName.JPX_DECODE.getName(), COSName.JBIG2_DECODE.getName(), COSName.CCITTFAX_DECODE.getName());
+	private static final Set<COSName> IGNORED_KEYS = new HashSet<>(Arrays.asList(COSName.PARENT, COSName.P,
+			COSName.STRUCT_PARENT, COSName.STRUCT_PARENTS));
+	private static final Set<COSName> PAGE_TYPES = new HashSet<>(Arrays.asList(COSName.PAGE, COSName.PAGES));
+	private static final Set<COSName> PAGE_KEYS = new HashSet<>(Arrays.asList(COSName.RESOURCES, COSName.MEDIA_BOX,
+			COSName.CROP_BOX, COSName.ROTATE));
+	private static final Set<COSName> ENCODING_KEYS = new HashSet<>(Arrays.asList(COSName.LENGTH, COSName.FILTER,
+			COSName.DECODE_PARMS, COSName.DL));
+
+	private final MessageDigest digest;
+	private final Map<COSBase, Integer> visited = new IdentityHashMap<>();
+	private final byte[] buffer = new byte[8192];
+
+	private PageFingerprint() {
+		digest = Hashes.newSha256();
+	}
+
+	/**
+	 * @param page The page
+	 * @return Hex encoded fingerprint of the page
+	 * @throws IOException if a stream of the page cannot be decoded
+	 */
+	static String of(PDPage page) throws IOException {
+		PageFingerprint fp = new PageFingerprint();
+		COSDictionary dict = page.getCOSObject();
+		fp.visited.put(dict, 0);
+		// inheritable attributes are resolved through the page tree
+		fp.update("MediaBox");
+		fp.hash(page.getMediaBox().getCOSArray());
+		fp.update("CropBox");
+		fp.hash(page.getCropBox().getCOSArray());
+		fp.update("Rotate" + page.getRotation());
+		fp.update("Resources");
+		fp.hash(page.getResources().getCOSObject());
+		fp.hashEntries(dict, PAGE_KEYS);
+		return Hashes.hex(fp.digest.digest());
+	}
+
+	/**
+	 * @param base A resource of a page, e.g. a font or an image
+	 * @return Hex encoded fingerprint of the resource, equal for resources that draw the same
+	 * @throws IOException if a stream of the resource cannot be decoded
+	 */
+	static String of(COSBase base) throws IOException {
+		PageFingerprint fp = new PageFingerprint();
+		fp.hash(base);
+		return Hashes.hex(fp.digest.digest());
+	}
+
+	private void hash(COSBase base) throws IOException {
+		if (base instanceof COSObject) {
+			base = ((COSObject) base).getObject();
+		}
+		if (base instanceof COSDictionary || base instanceof COSArray) {
+			Integer ref = visited.get(base);
+			if (ref != null) {
+				update("#" + ref);
+				return;
+			}
+			visited.put(base, visited.size());
+		}
+		if (base instanceof COSDictionary && PAGE_TYPES.contains(((COSDictionary) base).getCOSName(COSName.TYPE))) {
+			update("page");
+			return;
+		}
+
+		if (base instanceof COSStream) {
+			update("<<");
+			hashEntries((COSDictionary) base, ENCODING_KEYS);
+			update(">>stream");
+			try (InputStream is = new PDStream((COSStream) base).createInputStream(STOP_FILTERS)) {
+				for (int n; (n = is.read(buffer)) != -1;) {
+					digest.update(buffer, 0, n);
+				}
+			}
+			update("endstream");
+		} else if (base instanceof COSDictionary) {
+			update("<<");
+			hashEntries((COSDictionary) base, Collections.emptySet());
+			update(">>");
+		} else if (base instanceof COSArray) {
+			update("[");
+			for (COSBase item : (COSArray) base) {
+				hash(item);
+			}
+			update("]");
+		} else if (base instanceof COSName) {
+			update("/" + ((COSName) base).getName());
+		} else if (base instanceof COSString) {
+			byte[] bytes = ((COSString) base).getBytes();
+			update("(" + bytes.length);
+			digest.update(bytes);
+		} else if (base instanceof COSInteger) {
+			update("i" + ((COSInteger) base).longValue());
+		} else if (base instanceof COSFloat) {
+			update("f" + ((COSFloat) base).floatValue());
+		} else if (base instanceof COSBoolean) {
+			update("b" + ((COSBoolean) base).getValue());
+		} else {
+			update("null");
+		}
+	}
+
+	private void hashEntries(COSDictionary dict, Set<COSName> skipped) throws IOException {
+		List<COSName> keys = new ArrayList<>(dict.keySet());
+		keys.sort(Comparator.comparing(COSName::getName));
+		for (COSName key : keys) {
+			if (IGNORED_KEYS.contains(key) || skipped.contains(key)) {
+				continue;
+			}
+			update("/" + key.getName());
+			hash(dict.getItem(key));
+		}
+	}
+
+	private void update(String token) {
+		digest.update(token.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+}
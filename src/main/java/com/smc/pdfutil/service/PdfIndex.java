@@ -0,0 +1,536 @@
+package com.smc.pdfutil.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * On-disk inverted index of PDF text, term to (document, page) postings, so that repeated keyword searches do not
+ * reopen any PDF. Text is extracted page by page when documents are added. Every call to {@code add} writes a new
+ * immutable segment file, which is memory-mapped for queries. Adding a document again supersedes its earlier postings.
+ * <p>
+ * After each {@code add} the newest segments are merged while the newest one holds at least 1/{@link #MERGE_FACTOR}
+ * as many live documents as the one before it, so the number of segments a query visits grows only logarithmically
+ * with the number of additions. Segments where most documents have been superseded are rewritten without them.
+ * {@link #compact()} merges everything into a single segment.
+ * <p>
+ * A merged segment file cannot be deleted on Windows while it is still mapped, which lasts until its buffer is garbage
+ * collected. Such files are deleted again each time a segment is written and when the index is opened; a leftover
+ * file holds only documents superseded by a later segment, so it is dropped when the index is opened.
+ * <p>
+ * Segment layout (big-endian): magic, version, document count, documents (length + UTF-8 name), term count,
+ * term directory sorted by UTF-8 bytes (term offset, term length, postings offset), term bytes, then postings
+ * (count + document/page pairs).
+ */
+public class PdfIndex implements Closeable {
+	private static final Logger log = LoggerFactory.getLogger(PdfIndex.class);
+
+	private static final int MAGIC = 0x50444649;
+	private static final int VERSION = 1;
+	private static final String SEGMENT_PREFIX = "seg-";
+	private static final String SEGMENT_SUFFIX = ".idx";
+
+	/**
+	 * Newest segment is merged into the one before it when it holds at least 1/MERGE_FACTOR of its live documents
+	 */
+	static final int MERGE_FACTOR = 2;
+
+	/**
+	 * A page that contains all terms of a query
+	 */
+	public static class Hit {
+		private final String docName;
+		private final int pageIdx;
+
+		Hit(String docName, int pageIdx) {
+			this.docName = docName;
+			this.pageIdx = pageIdx;
+		}
+
+		public String getDocName() {
+			return docName;
+		}
+
+		public int getPageIdx() {
+			return pageIdx;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Hit)) {
+				return false;
+			}
+			Hit hit = (Hit) o;
+			return pageIdx == hit.pageIdx && docName.equals(hit.docName);
+		}
+
+		@Override
+		public int hashCode() {
+			return docName.hashCode() * 31 + pageIdx;
+		}
+
+		@Override
+		public String toString() {
+			return docName + "#" + pageIdx;
+		}
+	}
+
+	private final File indexDir;
+	private final List<Segment> segments = new ArrayList<>();
+	private final Map<String, Integer> latestSegment = new HashMap<>();
+	private final List<File> obsolete = new ArrayList<>();
+
+	/**
+	 * Open the index in the directory, it is created if not exists
+	 * @param indexDir Directory of the index segments
+	 * @throws IOException if the index cannot be read
+	 */
+	public PdfIndex(File indexDir) throws IOException {
+		this.indexDir = indexDir;
+		if (!indexDir.isDirectory() && !indexDir.mkdirs()) {
+			throw new IOException("Cannot create index directory: " + indexDir);
+		}
+		File[] files = indexDir.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files) {
+				segments.add(new Segment(file));
+			}
+		}
+		reindex();
+		for (int s = segments.size() - 1; s >= 0; s--) {
+			if (liveDocCount(s) == 0) {
+				obsolete.add(segments.remove(s).file);
+			}
+		}
+		reindex();
+		deleteObsolete();
+	}
+
+	/**
+	 * Index the PDFs, the absolute path of each file is used as document name
+	 * @param files PDFs to index
+	 * @param pwd Password to decrypt the PDFs
+	 * @throws IOException if a PDF is not valid
+	 */
+	public void add(List<File> files, String pwd) throws IOException {
+		Map<String, List<String>> docs = new LinkedHashMap<>();
+		for (File file : files) {
+			try (InputStream inputStream = new FileInputStream(file)) {
+				docs.put(file.getAbsolutePath(), readPages(inputStream, pwd));
+			}
+		}
+		addSegment(docs);
+	}
+
+	/**
+	 * Index the PDF
+	 * @param docName Name of the document returned in search hits
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @throws IOException if the PDF is not valid
+	 */
+	public void add(String docName, InputStream inputStream, String pwd) throws IOException {
+		addSegment(Collections.singletonMap(docName, readPages(inputStream, pwd)));
+	}
+
+	/**
+	 * Merge all segments into one, dropping the postings of superseded documents
+	 * @throws IOException if the merged segment cannot be written
+	 */
+	public synchronized void compact() throws IOException {
+		if (segments.size() > 1 || (segments.size() == 1 && liveDocCount(0) < segments.get(0).docNames.length)) {
+			mergeSegments(new ArrayList<>(segments));
+		}
+	}
+
+	/**
+	 * Find the pages that contain every word of the query, case insensitive
+	 * @param query Words to search
+	 * @return Matched pages ordered by document and page
+	 */
+	public synchronized List<Hit> search(String query) {
+		List<byte[]> terms = new ArrayList<>();
+		for (String term : tokenize(query)) {
+			terms.add(term.getBytes(StandardCharsets.UTF_8));
+		}
+		if (terms.isEmpty()) {
+			return new ArrayList<>();
+		}
+		Set<Hit> hits = new TreeSet<>(Comparator.comparing(Hit::getDocName).thenComparingInt(Hit::getPageIdx));
+		for (int s = 0; s < segments.size(); s++) {
+			Segment segment = segments.get(s);
+			long[] pages = null;
+			for (byte[] term : terms) {
+				long[] postings = segment.postings(term);
+				pages = pages == null ? postings : intersect(pages, postings);
+				if (pages.length == 0) {
+					break;
+				}
+			}
+			for (long page : pages) {
+				String docName = segment.docNames[(int) (page >>> 32)];
+				if (latestSegment.get(docName) == s) {
+					hits.add(new Hit(docName, (int) page));
+				}
+			}
+		}
+		return new ArrayList<>(hits);
+	}
+
+	/**
+	 * @return Number of documents in the index
+	 */
+	public synchronized int getDocCount() {
+		return latestSegment.size();
+	}
+
+	/**
+	 * @return Number of segment files a query visits
+	 */
+	synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	@Override
+	public synchronized void close() {
+		segments.clear();
+		latestSegment.clear();
+	}
+
+	private static List<String> readPages(InputStream inputStream, String pwd) throws IOException {
+		List<String> pages = new ArrayList<>();
+		try (PdfSession session = new PdfSession(inputStream, pwd)) {
+			for (int i = 0; i < session.getPageCount(); i++) {
+				pages.add(session.read(i, i));
+			}
+		}
+		return pages;
+	}
+
+	static List<String> tokenize(String text) {
+		List<String> terms = new ArrayList<>();
+		StringBuilder term = new StringBuilder();
+		for (int i = 0; i < text.length(); ) {
+			int cp = text.codePointAt(i);
+			if (Character.isLetterOrDigit(cp)) {
+				term.appendCodePoint(Character.toLowerCase(cp));
+			} else if (term.length() > 0) {
+				terms.add(term.toString());
+				term.setLength(0);
+			}
+			i += Character.charCount(cp);
+		}
+		if (term.length() > 0) {
+			terms.add(term.toString());
+		}
+		return terms;
+	}
+
+	private synchronized void addSegment(Map<String, List<String>> docs) throws IOException {
+		TreeMap<byte[], List<Long>> postings = new TreeMap<>(PdfIndex::compare);
+		List<String> docNames = new ArrayList<>(docs.keySet());
+		for (int d = 0; d < docNames.size(); d++) {
+			List<String> pages = docs.get(docNames.get(d));
+			for (int p = 0; p < pages.size(); p++) {
+				for (String term : new LinkedHashSet<>(tokenize(pages.get(p)))) {
+					postings.computeIfAbsent(term.getBytes(StandardCharsets.UTF_8), k -> new ArrayList<>()).add(((long) d << 32) | p);
+				}
+			}
+		}
+		segments.add(writeSegment(docNames, postings));
+		reindex();
+		merge();
+	}
+
+	/**
+	 * Rewrite the segments where most documents are superseded, then merge the newest segments while they are of
+	 * similar size
+	 */
+	private void merge() throws IOException {
+		List<Segment> sparse = new ArrayList<>();
+		for (int s = 0; s < segments.size(); s++) {
+			if (liveDocCount(s) * 2 < segments.get(s).docNames.length) {
+				sparse.add(segments.get(s));
+			}
+		}
+		if (!sparse.isEmpty()) {
+			mergeSegments(sparse);
+		}
+		while (segments.size() > 1) {
+			int last = segments.size() - 1;
+			if (liveDocCount(last) * MERGE_FACTOR < liveDocCount(last - 1)) {
+				break;
+			}
+			mergeSegments(new ArrayList<>(segments.subList(last - 1, last + 1)));
+		}
+	}
+
+	/**
+	 * Replace the segments with one new segment holding only their live documents. Live documents are not in any
+	 * later segment, so the merged segment can be placed last.
+	 */
+	private void mergeSegments(List<Segment> merged) throws IOException {
+		List<String> docNames = new ArrayList<>();
+		TreeMap<byte[], List<Long>> postings = new TreeMap<>(PdfIndex::compare);
+		for (Segment segment : merged) {
+			int s = segments.indexOf(segment);
+			int[] docIds = new int[segment.docNames.length];
+			for (int d = 0; d < docIds.length; d++) {
+				docIds[d] = latestSegment.get(segment.docNames[d]) == s ? docNames.size() : -1;
+				if (docIds[d] >= 0) {
+					docNames.add(segment.docNames[d]);
+				}
+			}
+			for (int t = 0; t < segment.termCount; t++) {
+				List<Long> pages = null;
+				for (long page : segment.postingsAt(t)) {
+					int docId = docIds[(int) (page >>> 32)];
+					if (docId >= 0) {
+						if (pages == null) {
+							pages = postings.computeIfAbsent(segment.term(t), k -> new ArrayList<>());
+						}
+						pages.add(((long) docId << 32) | (page & 0xffffffffL));
+					}
+				}
+			}
+		}
+
+		Segment target = docNames.isEmpty() ? null : writeSegment(docNames, postings);
+		segments.removeAll(merged);
+		if (target != null) {
+			segments.add(target);
+		}
+		reindex();
+		for (Segment segment : merged) {
+			obsolete.add(segment.file);
+		}
+		deleteObsolete();
+		log.debug("Merged PDF index segments: merged={}, docs={}, segments={}", merged.size(), docNames.size(), segments.size());
+	}
+
+	private Segment writeSegment(List<String> docNames, SortedMap<byte[], List<Long>> postings) throws IOException {
+		log.info("Writing PDF index segment");
+		deleteObsolete();
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(header);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(docNames.size());
+		for (String docName : docNames) {
+			byte[] name = docName.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(name.length);
+			out.write(name);
+		}
+		out.writeInt(postings.size());
+		int termsStart = header.size() + postings.size() * 12;
+		int postingsStart = termsStart;
+		for (byte[] term : postings.keySet()) {
+			postingsStart += term.length;
+		}
+		int termOffset = termsStart;
+		int postingsOffset = postingsStart;
+		for (Map.Entry<byte[], List<Long>> entry : postings.entrySet()) {
+			out.writeInt(termOffset);
+			out.writeInt(entry.getKey().length);
+			out.writeInt(postingsOffset);
+			termOffset += entry.getKey().length;
+			postingsOffset += 4 + entry.getValue().size() * 8;
+		}
+		for (byte[] term : postings.keySet()) {
+			out.write(term);
+		}
+		for (List<Long> pages : postings.values()) {
+			out.writeInt(pages.size());
+			for (long page : pages) {
+				out.writeInt((int) (page >>> 32));
+				out.writeInt((int) page);
+			}
+		}
+		out.flush();
+
+		File file = new File(indexDir, String.format(Locale.ROOT, "%s%06d%s", SEGMENT_PREFIX, nextSegmentNumber(), SEGMENT_SUFFIX));
+		File tmp = File.createTempFile(SEGMENT_PREFIX, ".tmp", indexDir);
+		try {
+			Files.write(tmp.toPath(), header.toByteArray());
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp.toPath());
+		}
+		log.debug("PDF index segment {}: docs={}, terms={}, bytes={}", file.getName(), docNames.size(), postings.size(), header.size());
+		return new Segment(file);
+	}
+
+	/**
+	 * @return Number after every segment, including merged ones not deleted yet, so a segment file is never replaced
+	 */
+	private int nextSegmentNumber() {
+		int max = 0;
+		for (Segment segment : segments) {
+			max = Math.max(max, segmentNumber(segment.file));
+		}
+		for (File file : obsolete) {
+			max = Math.max(max, segmentNumber(file));
+		}
+		return max + 1;
+	}
+
+	private static int segmentNumber(File file) {
+		String name = file.getName();
+		return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * Delete the merged segment files, those still mapped are kept for the next attempt
+	 */
+	private void deleteObsolete() {
+		for (Iterator<File> i = obsolete.iterator(); i.hasNext();) {
+			File file = i.next();
+			if (file.delete() || !file.exists()) {
+				i.remove();
+			}
+		}
+		if (!obsolete.isEmpty()) {
+			log.debug("Merged PDF index segments not deleted yet: {}", obsolete);
+		}
+	}
+
+	private void reindex() {
+		latestSegment.clear();
+		for (int s = 0; s < segments.size(); s++) {
+			for (String docName : segments.get(s).docNames) {
+				latestSegment.put(docName, s);
+			}
+		}
+	}
+
+	private int liveDocCount(int s) {
+		int count = 0;
+		for (String docName : segments.get(s).docNames) {
+			if (latestSegment.get(docName) == s) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Intersect two ascending arrays of document/page pairs
+	 */
+	private static long[] intersect(long[] a, long[] b) {
+		long[] result = new long[Math.min(a.length, b.length)];
+		int n = 0;
+		for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	private static int compare(byte[] a, byte[] b) {
+		for (int i = 0; i < Math.min(a.length, b.length); i++) {
+			int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	private static class Segment {
+		private final File file;
+		private final MappedByteBuffer buffer;
+		private final String[] docNames;
+		private final int termCount;
+		private final int directoryStart;
+
+		Segment(File file) throws IOException {
+			this.file = file;
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+				throw new IOException("Not a PDF index segment: " + file);
+			}
+			int pos = 8;
+			docNames = new String[buffer.getInt(pos)];
+			pos += 4;
+			for (int i = 0; i < docNames.length; i++) {
+				byte[] name = new byte[buffer.getInt(pos)];
+				pos += 4;
+				for (int j = 0; j < name.length; j++) {
+					name[j] = buffer.get(pos++);
+				}
+				docNames[i] = new String(name, StandardCharsets.UTF_8);
+			}
+			termCount = buffer.getInt(pos);
+			directoryStart = pos + 4;
+		}
+
+		/**
+		 * @return Document/page pairs of the term in ascending order, empty if the term is not in the segment
+		 */
+		long[] postings(byte[] term) {
+			int low = 0;
+			int high = termCount - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int entry = directoryStart + mid * 12;
+				int c = compareTerm(buffer.getInt(entry), buffer.getInt(entry + 4), term);
+				if (c < 0) {
+					low = mid + 1;
+				} else if (c > 0) {
+					high = mid - 1;
+				} else {
+					return postingsAt(mid);
+				}
+			}
+			return new long[0];
+		}
+
+		long[] postingsAt(int termIdx) {
+			int pos = buffer.getInt(directoryStart + termIdx * 12 + 8);
+			long[] pages = new long[buffer.getInt(pos)];
+			for (int i = 0; i < pages.length; i++) {
+				long doc = buffer.getInt(pos + 4 + i * 8);
+				long page = buffer.getInt(pos + 8 + i * 8) & 0xffffffffL;
+				pages[i] = (doc << 32) | page;
+			}
+			return pages;
+		}
+
+		byte[] term(int termIdx) {
+			int entry = directoryStart + termIdx * 12;
+			byte[] term = new byte[buffer.getInt(entry + 4)];
+			for (int i = 0; i < term.length; i++) {
+				term[i] = buffer.get(buffer.getInt(entry) + i);
+			}
+			return term;
+		}
+
+		private int compareTerm(int offset, int length, byte[] term) {
+			for (int i = 0; i < Math.min(length, term.length); i++) {
+				int c = (buffer.get(offset + i) & 0xff) - (term[i] & 0xff);
+				if (c != 0) {
+					return c;
+				}
+			}
+			return length - term.length;
+		}
+	}
+}
@@ -0,0 +1,589 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Rewrite a PDF in linearized form (ISO 32000-1 Annex F), so that a client using range requests can show the first
+ * page after downloading only the beginning of the file.
+ * <p>
+ * Layout: header, linearization dictionary, first-page cross reference table and trailer, catalog, primary hint stream,
+ * objects of the first page, then the objects of every other page, objects shared by several pages, the remaining
+ * objects and finally the main cross reference table. Objects of the first-page section are numbered after all other
+ * objects, as the first-page cross reference table covers only them.
+ */
+class PdfLinearizer {
+	private static final Logger log = LoggerFactory.getLogger(PdfLinearizer.class);
+
+	private final PDDocument doc;
+	private final Map<COSBase, Integer> numbers = new IdentityHashMap<>();
+	private final Map<COSBase, Integer> firstPageIdx = new IdentityHashMap<>();
+	private final Map<COSBase, Integer> sharedIdx = new IdentityHashMap<>();
+
+	private COSBase catalog;
+	private final List<COSBase> firstPage = new ArrayList<>();
+	private final List<List<COSBase>> pageGroups = new ArrayList<>();
+	private final List<List<Integer>> pageSharedRefs = new ArrayList<>();
+	private final List<COSBase> shared = new ArrayList<>();
+	private final List<COSBase> others = new ArrayList<>();
+
+	private PdfLinearizer(PDDocument doc) {
+		this.doc = doc;
+	}
+
+	/**
+	 * Linearize the PDF, it must not be encrypted and must have at least one page
+	 * @param pdf The PDF
+	 * @param outputStream OutputStream to the linearized PDF
+	 * @throws IOException if the PDF is not valid, encrypted or has no page
+	 */
+	static void linearize(byte[] pdf, OutputStream outputStream) throws IOException {
+		try (PDDocument doc = PDDocument.load(pdf)) {
+			if (doc.isEncrypted()) {
+				throw new IOException("Cannot linearize encrypted PDF");
+			}
+			if (doc.getNumberOfPages() == 0) {
+				throw new IOException("Cannot linearize PDF without pages");
+			}
+			PdfLinearizer linearizer = new PdfLinearizer(doc);
+			linearizer.partition();
+			linearizer.write(outputStream);
+		}
+	}
+
+	private static COSBase resolve(COSBase base) {
+		return base instanceof COSObject ? ((COSObject) base).getObject() : base;
+	}
+
+	private static boolean isPageTreeNode(COSBase base) {
+		return base instanceof COSDictionary && COSName.PAGES.equals(((COSDictionary) base).getCOSName(COSName.TYPE));
+	}
+
+	/**
+	 * Assign every indirect object to a section of the linearized file
+	 */
+	private void partition() {
+		COSDictionary trailer = doc.getDocument().getTrailer();
+		catalog = resolve(trailer.getItem(COSName.ROOT));
+
+		List<COSBase> pageDicts = new ArrayList<>();
+		for (PDPage page : doc.getPages()) {
+			pageDicts.add(page.getCOSObject());
+		}
+		Set<COSBase> pageSet = Collections.newSetFromMap(new IdentityHashMap<>());
+		pageSet.addAll(pageDicts);
+
+		List<List<COSBase>> reaches = new ArrayList<>();
+		for (COSBase pageDict : pageDicts) {
+			Ordered reach = new Ordered();
+			reach.add(pageDict);
+			collect(pageDict, reach, pageSet, pageDict);
+			reaches.add(reach.list);
+		}
+
+		for (COSBase base : reaches.get(0)) {
+			if (base != catalog) {
+				firstPageIdx.put(base, firstPage.size());
+				firstPage.add(base);
+			}
+		}
+		Map<COSBase, Integer> usage = new IdentityHashMap<>();
+		for (int i = 1; i < reaches.size(); i++) {
+			for (COSBase base : reaches.get(i)) {
+				if (base != catalog && !firstPageIdx.containsKey(base)) {
+					usage.merge(base, 1, Integer::sum);
+				}
+			}
+		}
+		for (int i = 1; i < reaches.size(); i++) {
+			List<COSBase> group = new ArrayList<>();
+			for (COSBase base : reaches.get(i)) {
+				Integer count = usage.get(base);
+				if (count == null) {
+					continue;
+				}
+				if (count == 1) {
+					group.add(base);
+				} else if (!sharedIdx.containsKey(base)) {
+					sharedIdx.put(base, shared.size());
+					shared.add(base);
+				}
+			}
+			pageGroups.add(group);
+		}
+		for (int i = 1; i < reaches.size(); i++) {
+			List<Integer> refs = new ArrayList<>();
+			for (COSBase base : reaches.get(i)) {
+				if (firstPageIdx.containsKey(base)) {
+					refs.add(firstPageIdx.get(base));
+				} else if (sharedIdx.containsKey(base)) {
+					refs.add(firstPage.size() + sharedIdx.get(base));
+				}
+			}
+			pageSharedRefs.add(refs);
+		}
+
+		Set<COSBase> assigned = Collections.newSetFromMap(new IdentityHashMap<>());
+		assigned.add(catalog);
+		assigned.addAll(firstPage);
+		assigned.addAll(shared);
+		for (List<COSBase> group : pageGroups) {
+			assigned.addAll(group);
+		}
+		Ordered all = new Ordered();
+		all.add(catalog);
+		collect(catalog, all, null, null);
+		COSBase info = resolve(trailer.getItem(COSName.INFO));
+		if (info instanceof COSDictionary && all.add(info)) {
+			collect(info, all, null, null);
+		}
+		for (COSBase base : all.list) {
+			if (!assigned.contains(base)) {
+				others.add(base);
+			}
+		}
+
+		int number = 1;
+		for (List<COSBase> group : pageGroups) {
+			for (COSBase base : group) {
+				numbers.put(base, number++);
+			}
+		}
+		for (COSBase base : shared) {
+			numbers.put(base, number++);
+		}
+		for (COSBase base : others) {
+			numbers.put(base, number++);
+		}
+		// first-page section: linearization dictionary, catalog, hint stream, then the objects of the first page
+		int firstPageStart = number;
+		numbers.put(catalog, firstPageStart + 1);
+		number = firstPageStart + 3;
+		for (COSBase base : firstPage) {
+			numbers.put(base, number++);
+		}
+	}
+
+	/**
+	 * Collect the indirect objects reachable from the object. When collecting for a page, the page tree and other
+	 * pages are not followed.
+	 */
+	private static void collect(COSBase base, Ordered result, Set<COSBase> pageSet, COSBase self) {
+		if (base instanceof COSObject || base instanceof COSStream) {
+			COSBase target = resolve(base);
+			if (target == null) {
+				return;
+			}
+			if (pageSet != null && ((pageSet.contains(target) && target != self) || isPageTreeNode(target))) {
+				return;
+			}
+			if (base instanceof COSObject && !result.add(target)) {
+				return;
+			}
+			if (base instanceof COSStream && target != self && !result.add(target)) {
+				return;
+			}
+			base = target;
+		}
+		if (base instanceof COSArray) {
+			for (COSBase item : (COSArray) base) {
+				collect(item, result, pageSet, self);
+			}
+		} else if (base instanceof COSDictionary) {
+			for (Map.Entry<COSName, COSBase> entry : ((COSDictionary) base).entrySet()) {
+				if (pageSet != null && COSName.PARENT.equals(entry.getKey())) {
+					continue;
+				}
+				collect(entry.getValue(), result, pageSet, self);
+			}
+		}
+	}
+
+	private void write(OutputStream outputStream) throws IOException {
+		int mainCount = numbers.size() - 1 - firstPage.size();
+		int linNum = mainCount + 1;
+		int hintNum = mainCount + 3;
+		int size = mainCount + 3 + firstPage.size() + 1;
+		int pageCount = pageGroups.size() + 1;
+
+		byte[] header = ("%PDF-" + doc.getVersion() + "\n%\u00e2\u00e3\u00cf\u00d3\n").getBytes(StandardCharsets.ISO_8859_1);
+		byte[] catalogBody = body(catalog);
+		List<byte[]> firstPageBodies = new ArrayList<>();
+		for (COSBase base : firstPage) {
+			firstPageBodies.add(body(base));
+		}
+		List<byte[]> mainBodies = new ArrayList<>();
+		List<int[]> pageRanges = new ArrayList<>();
+		for (List<COSBase> group : pageGroups) {
+			int start = mainBodies.size();
+			for (COSBase base : group) {
+				mainBodies.add(body(base));
+			}
+			pageRanges.add(new int[] {start, mainBodies.size()});
+		}
+		int sharedStart = mainBodies.size();
+		for (COSBase base : shared) {
+			mainBodies.add(body(base));
+		}
+		for (COSBase base : others) {
+			mainBodies.add(body(base));
+		}
+
+		COSDictionary trailer = doc.getDocument().getTrailer();
+		StringBuilder trailerItems = new StringBuilder();
+		trailerItems.append(" /Root ").append(numbers.get(catalog)).append(" 0 R");
+		COSBase info = resolve(trailer.getItem(COSName.INFO));
+		if (info != null && numbers.containsKey(info)) {
+			trailerItems.append(" /Info ").append(numbers.get(info)).append(" 0 R");
+		}
+		COSBase id = trailer.getDictionaryObject(COSName.ID);
+		if (id instanceof COSArray) {
+			ByteArrayOutputStream idBytes = new ByteArrayOutputStream();
+			writeValue(id, idBytes);
+			trailerItems.append(" /ID ").append(new String(idBytes.toByteArray(), StandardCharsets.ISO_8859_1));
+		}
+
+		// everything before the catalog has a fixed length, numbers are padded
+		int linLen = linDict(linNum, 0, 0, 0, 0, 0, pageCount, 0).length;
+		int firstXrefLen = ("xref\n" + linNum + " " + (size - linNum) + "\n").length() + (size - linNum) * 20;
+		int firstTrailerLen = firstTrailer(size, trailerItems, 0).length;
+		long catalogOffset = header.length + linLen + firstXrefLen + firstTrailerLen;
+		long hintOffset = catalogOffset + catalogBody.length;
+
+		// offsets in the hint tables are given as if the hint stream were not in the file
+		long firstPageOffset = hintOffset;
+		long firstPageLength = 0;
+		for (byte[] bytes : firstPageBodies) {
+			firstPageLength += bytes.length;
+		}
+		long[] mainOffsets = new long[mainBodies.size()];
+		long offset = firstPageOffset + firstPageLength;
+		for (int i = 0; i < mainBodies.size(); i++) {
+			mainOffsets[i] = offset;
+			offset += mainBodies.get(i).length;
+		}
+		byte[] hint = hintStream(hintNum, firstPageOffset, firstPageLength, firstPageBodies, mainBodies, mainOffsets, pageRanges, sharedStart);
+
+		long shift = hint.length;
+		long endOfFirstPage = firstPageOffset + firstPageLength + shift;
+		long mainXrefOffset = offset + shift;
+		String mainXrefHead = "xref\n0 " + (mainCount + 1);
+		long t = mainXrefOffset + mainXrefHead.length();
+		long firstXrefOffset = header.length + linLen;
+
+		ByteArrayOutputStream mainXref = new ByteArrayOutputStream();
+		write(mainXref, mainXrefHead + "\n0000000000 65535 f \n");
+		for (long mainOffset : mainOffsets) {
+			write(mainXref, entry(mainOffset + shift));
+		}
+		write(mainXref, "trailer\n<< /Size " + (mainCount + 1) + " >>\nstartxref\n" + firstXrefOffset + "\n%%EOF\n");
+		long length = mainXrefOffset + mainXref.size();
+
+		CountingOutputStream out = new CountingOutputStream(outputStream);
+		out.write(header);
+		out.write(linDict(linNum, length, hintOffset, hint.length, numbers.get(firstPage.get(0)), endOfFirstPage, pageCount, t));
+		write(out, "xref\n" + linNum + " " + (size - linNum) + "\n");
+		write(out, entry(header.length));
+		write(out, entry(catalogOffset));
+		write(out, entry(hintOffset));
+		long firstPageObjOffset = hintOffset + hint.length;
+		for (byte[] bytes : firstPageBodies) {
+			write(out, entry(firstPageObjOffset));
+			firstPageObjOffset += bytes.length;
+		}
+		out.write(firstTrailer(size, trailerItems, mainXrefOffset));
+		out.write(catalogBody);
+		out.write(hint);
+		for (byte[] bytes : firstPageBodies) {
+			out.write(bytes);
+		}
+		for (byte[] bytes : mainBodies) {
+			out.write(bytes);
+		}
+		mainXref.writeTo(out);
+		out.flush();
+		if (out.count != length) {
+			throw new IOException("Linearized length mismatch: " + out.count + " != " + length);
+		}
+		log.debug("Linearized PDF: pages={}, objects={}, bytes={}", pageCount, size - 1, length);
+	}
+
+	private static byte[] linDict(int num, long length, long hintOffset, long hintLength, int firstPageNum, long endOfFirstPage, int pageCount, long t) {
+		return String.format(Locale.ROOT, "%d 0 obj\n<< /Linearized 1 /L %10d /H [ %10d %10d ] /O %10d /E %10d /N %d /T %10d >>\nendobj\n",
+				num, length, hintOffset, hintLength, firstPageNum, endOfFirstPage, pageCount, t).getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static byte[] firstTrailer(int size, CharSequence items, long prev) {
+		return String.format(Locale.ROOT, "trailer\n<< /Size %d%s /Prev %10d >>\nstartxref\n0\n%%%%EOF\n", size, items, prev)
+				.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	private static String entry(long offset) {
+		return String.format(Locale.ROOT, "%010d 00000 n \n", offset);
+	}
+
+	/**
+	 * Build the primary hint stream with the page offset hint table and the shared object hint table
+	 */
+	private byte[] hintStream(int num, long firstPageOffset, long firstPageLength, List<byte[]> firstPageBodies,
+							  List<byte[]> mainBodies, long[] mainOffsets, List<int[]> pageRanges, int sharedStart) throws IOException {
+		int pageCount = pageRanges.size() + 1;
+		long[] objs = new long[pageCount];
+		long[] lens = new long[pageCount];
+		objs[0] = firstPageBodies.size();
+		lens[0] = firstPageLength;
+		for (int i = 1; i < pageCount; i++) {
+			int[] range = pageRanges.get(i - 1);
+			objs[i] = range[1] - range[0];
+			for (int j = range[0]; j < range[1]; j++) {
+				lens[i] += mainBodies.get(j).length;
+			}
+		}
+		long minObjs = min(objs), minLen = min(lens);
+		int objBits = bits(max(objs) - minObjs), lenBits = bits(max(lens) - minLen);
+		int maxRefs = 0, maxId = 0;
+		for (List<Integer> refs : pageSharedRefs) {
+			maxRefs = Math.max(maxRefs, refs.size());
+			for (int ref : refs) {
+				maxId = Math.max(maxId, ref);
+			}
+		}
+		int refBits = bits(maxRefs), idBits = bits(maxId);
+
+		BitWriter bw = new BitWriter();
+		bw.write(minObjs, 32);
+		bw.write(firstPageOffset, 32);
+		bw.write(objBits, 16);
+		bw.write(minLen, 32);
+		bw.write(lenBits, 16);
+		bw.write(0, 32);
+		bw.write(0, 16);
+		bw.write(minLen, 32);
+		bw.write(lenBits, 16);
+		bw.write(refBits, 16);
+		bw.write(idBits, 16);
+		bw.write(0, 16);
+		bw.write(1, 16);
+		for (long n : objs) {
+			bw.write(n - minObjs, objBits);
+		}
+		bw.align();
+		for (long n : lens) {
+			bw.write(n - minLen, lenBits);
+		}
+		bw.align();
+		bw.write(0, refBits);
+		for (List<Integer> refs : pageSharedRefs) {
+			bw.write(refs.size(), refBits);
+		}
+		bw.align();
+		for (List<Integer> refs : pageSharedRefs) {
+			for (int ref : refs) {
+				bw.write(ref, idBits);
+			}
+		}
+		bw.align();
+		for (long n : lens) {
+			bw.write(n - minLen, lenBits);
+		}
+		bw.align();
+
+		int sharedTableOffset = bw.size();
+		long[] groupLens = new long[firstPageBodies.size() + shared.size()];
+		for (int i = 0; i < firstPageBodies.size(); i++) {
+			groupLens[i] = firstPageBodies.get(i).length;
+		}
+		for (int i = 0; i < shared.size(); i++) {
+			groupLens[firstPageBodies.size() + i] = mainBodies.get(sharedStart + i).length;
+		}
+		long minGroupLen = min(groupLens);
+		int groupLenBits = bits(max(groupLens) - minGroupLen);
+		bw.write(shared.isEmpty() ? 0 : numbers.get(shared.get(0)), 32);
+		bw.write(shared.isEmpty() ? 0 : mainOffsets[sharedStart], 32);
+		bw.write(firstPageBodies.size(), 32);
+		bw.write(groupLens.length, 32);
+		bw.write(0, 16);
+		bw.write(minGroupLen, 32);
+		bw.write(groupLenBits, 16);
+		for (long n : groupLens) {
+			bw.write(n - minGroupLen, groupLenBits);
+		}
+		bw.align();
+		for (int i = 0; i < groupLens.length; i++) {
+			bw.write(0, 1);
+		}
+		bw.align();
+
+		byte[] data = bw.toByteArray();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(out, num + " 0 obj\n<< /Length " + data.length + " /S " + sharedTableOffset + " >>\nstream\n");
+		out.write(data);
+		write(out, "\nendstream\nendobj\n");
+		return out.toByteArray();
+	}
+
+	private byte[] body(COSBase base) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(out, numbers.get(base) + " 0 obj\n");
+		if (base instanceof COSStream) {
+			COSStream stream = (COSStream) base;
+			byte[] data;
+			try (InputStream is = stream.createRawInputStream()) {
+				data = IOUtils.toByteArray(is);
+			}
+			COSDictionary dict = new COSDictionary();
+			for (Map.Entry<COSName, COSBase> entry : stream.entrySet()) {
+				if (!COSName.LENGTH.equals(entry.getKey())) {
+					dict.setItem(entry.getKey(), entry.getValue());
+				}
+			}
+			dict.setInt(COSName.LENGTH, data.length);
+			writeValue(dict, out);
+			write(out, "\nstream\n");
+			out.write(data);
+			write(out, "\nendstream");
+		} else {
+			writeValue(base, out);
+		}
+		write(out, "\nendobj\n");
+		return out.toByteArray();
+	}
+
+	private void writeValue(COSBase base, OutputStream out) throws IOException {
+		if (base instanceof COSObject || base instanceof COSStream) {
+			Integer number = numbers.get(resolve(base));
+			write(out, number == null ? "null" : number + " 0 R");
+		} else if (base instanceof COSDictionary) {
+			write(out, "<<");
+			for (Map.Entry<COSName, COSBase> entry : ((COSDictionary) base).entrySet()) {
+				write(out, " ");
+				entry.getKey().writePDF(out);
+				write(out, " ");
+				writeValue(entry.getValue(), out);
+			}
+			write(out, " >>");
+		} else if (base instanceof COSArray) {
+			write(out, "[");
+			for (COSBase item : (COSArray) base) {
+				write(out, " ");
+				writeValue(item, out);
+			}
+			write(out, " ]");
+		} else if (base instanceof COSName) {
+			((COSName) base).writePDF(out);
+		} else if (base instanceof COSString) {
+			COSWriter.writeString((COSString) base, out);
+		} else if (base instanceof COSInteger) {
+			write(out, Long.toString(((COSInteger) base).longValue()));
+		} else if (base instanceof COSFloat) {
+			((COSFloat) base).writePDF(out);
+		} else if (base instanceof COSBoolean) {
+			write(out, ((COSBoolean) base).getValue() ? "true" : "false");
+		} else {
+			write(out, "null");
+		}
+	}
+
+	private static void write(OutputStream out, String str) throws IOException {
+		out.write(str.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	private static long min(long[] values) {
+		long min = Long.MAX_VALUE;
+		for (long value : values) {
+			min = Math.min(min, value);
+		}
+		return values.length == 0 ? 0 : min;
+	}
+
+	private static long max(long[] values) {
+		long max = 0;
+		for (long value : values) {
+			max = Math.max(max, value);
+		}
+		return max;
+	}
+
+	private static int bits(long value) {
+		return 64 - Long.numberOfLeadingZeros(value);
+	}
+
+	/**
+	 * Identity based set that keeps insertion order
+	 */
+	private static class Ordered {
+		private final List<COSBase> list = new ArrayList<>();
+		private final Set<COSBase> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		boolean add(COSBase base) {
+			if (seen.add(base)) {
+				list.add(base);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private static class BitWriter {
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private int current = 0;
+		private int used = 0;
+
+		void write(long value, int bits) {
+			for (int i = bits - 1; i >= 0; i--) {
+				current = (current << 1) | (int) ((value >>> i) & 1);
+				if (++used == 8) {
+					out.write(current);
+					current = 0;
+					used = 0;
+				}
+			}
+		}
+
+		void align() {
+			if (used > 0) {
+				write(0, 8 - used);
+			}
+		}
+
+		int size() {
+			return out.size();
+		}
+
+		byte[] toByteArray() {
+			return out.toByteArray();
+		}
+	}
+
+	private static class CountingOutputStream extends java.io.FilterOutputStream {
+		private long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
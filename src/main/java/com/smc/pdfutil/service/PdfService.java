@@ -1,13 +1,16 @@
 package com.smc.pdfutil.service;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
 
@@ -34,6 +37,23 @@ public class PdfService {
 	private static final float DEF_DPI = 72f;
 	private static final float IMG_DPI = 96f;
 
+	private static volatile SaveOptions saveOptions = SaveOptions.DEFAULT;
+
+	/**
+	 * @return Options applied whenever a PDF is written
+	 */
+	public static SaveOptions getSaveOptions() {
+		return saveOptions;
+	}
+
+	/**
+	 * Replace the options applied whenever a PDF is written. Saves already running keep the options they started with.
+	 * @param options Options applied whenever a PDF is written, null for the defaults
+	 */
+	public static void setSaveOptions(SaveOptions options) {
+		saveOptions = options == null ? SaveOptions.DEFAULT : options;
+	}
+
 	/**
 	 * Create a new blank PDF. The new PDF will at least contain a single page.
 	 * @param pageNum Page number that new PDF will contain
@@ -41,14 +61,44 @@ public class PdfService {
 	 * @throws IOException if the PDF is not valid
 	 */
 	public static void create(int pageNum, OutputStream outputStream) throws IOException {
+		create(pageNum, null, outputStream);
+	}
+
+	/**
+	 * Create a new PDF. The new PDF will at least contain a single page.
+	 * Pages are streamed to the output as they are produced, so memory use does not grow with the page number,
+	 * unless linearized output is enabled in the save options.
+	 * @param pageNum Page number that new PDF will contain
+	 * @param content Producer of the content stream of each page, null for blank pages
+	 * @param outputStream OutputStream to the output PDF
+	 * @throws IOException if the PDF is not valid
+	 */
+	public static void create(int pageNum, StreamingPdfWriter.PageContent content, OutputStream outputStream) throws IOException {
 		log.info("Create PDF");
 		log.debug("Params: pageNum={}", pageNum);
-		try (PDDocument doc = new PDDocument()) {
-			for (int i = 0; i < Math.max(pageNum, 1); i++) {
-				PDPage page = new PDPage();
-				doc.addPage(page);
+		create(pageNum, content, saveOptions, outputStream);
+	}
+
+	/**
+	 * Create a new PDF with the given save options
+	 * @param pageNum Page number that new PDF will contain
+	 * @param content Producer of the content stream of each page, null for blank pages
+	 * @param options Options of this save
+	 * @param outputStream OutputStream to the output PDF
+	 * @throws IOException if the PDF is not valid
+	 */
+	static void create(int pageNum, StreamingPdfWriter.PageContent content, SaveOptions options, OutputStream outputStream) throws IOException {
+		boolean linearized = options.isLinearized();
+		ByteArrayOutputStream buffer = linearized ? new ByteArrayOutputStream() : null;
+		try {
+			try (StreamingPdfWriter writer = new StreamingPdfWriter(linearized ? buffer : outputStream)) {
+				for (int i = 0; i < Math.max(pageNum, 1); i++) {
+					writer.addPage(content);
+				}
+			}
+			if (linearized) {
+				PdfLinearizer.linearize(buffer.toByteArray(), outputStream);
 			}
-			doc.save(outputStream);
 		} catch (IOException e) {
 			log.error("Create PDF Exception: ", e);
 			throw(e);
@@ -106,12 +156,25 @@ public class PdfService {
 	public static void split(InputStream inputStream, String pwd, int[] pagesIdx, OutputStream outputStream) throws IOException {
 		log.info("Splitting PDF");
 		log.debug("Params: pagesIdx={}", Arrays.toString((pagesIdx)));
+		split(inputStream, pwd, pagesIdx, saveOptions, outputStream);
+	}
+
+	/**
+	 * Split specified pages from given PDF and put into a new PDF with the given save options
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @param pagesIdx Index of pages subjected to split
+	 * @param options Options of this save
+	 * @param outputStream OutputStream to the output PDF
+	 * @throws IOException if the PDF is not valid
+	 */
+	static void split(InputStream inputStream, String pwd, int[] pagesIdx, SaveOptions options, OutputStream outputStream) throws IOException {
 		try (PDDocument doc = PDDocument.load(inputStream, pwd);
 			 PDDocument dest = new PDDocument()) {
 			for (int pageIdx: pagesIdx) {
 				dest.addPage(doc.getPage(pageIdx));
 			}
-			dest.save(outputStream);
+			save(dest, options, outputStream);
 		} catch (IOException e) {
 			log.error("Splitting PDF Exception: ", e);
 			throw(e);
@@ -135,7 +198,7 @@ public class PdfService {
 					merger.appendDocument(dest, doc);
 				}
 			}
-			dest.save(outputStream);
+			save(dest, outputStream);
 		} catch (IOException e) {
 			log.error("Merging PDF Exception: ", e);
 			throw(e);
@@ -180,7 +243,7 @@ public class PdfService {
 
 			doc.protect(spp);
 
-			doc.save(outputStream);
+			save(doc, outputStream);
 		} catch (IOException e) {
 			log.error("Encrypting PDF Exception: ", e);
 			throw(e);
@@ -255,29 +318,73 @@ public class PdfService {
 					doc.addPage(page);
 				}
 			}
-			PDPage page = doc.getPage(pageIdx);
-			PDPageContentStream content = new PDPageContentStream(doc, page, AppendMode.APPEND, false, true);
-			BufferedImage nativeImg = ImageIO.read(imgStream);
-			PDImageXObject img = LosslessFactory.createFromImage(doc, nativeImg);
-			PDRectangle rect = page.getCropBox();
-
-			width = width < 0? rect.getWidth() / DEF_DPI - x: width;
-			height = height < 0? rect.getHeight() / DEF_DPI - y: height;
-			float scale = Collections.min(Arrays.asList(width * DEF_DPI / nativeImg.getWidth(), height * DEF_DPI / nativeImg.getHeight(), 1f));
-			if (scale > 1f) {
-				scale = 1f;
-			}
-			y = page.getCropBox().getUpperRightY() / DEF_DPI - y - (img.getHeight() * scale / DEF_DPI);
-
-			content.drawImage(img, x * DEF_DPI, y * DEF_DPI, nativeImg.getWidth() * scale, nativeImg.getHeight() * scale);
-			content.close();
-			doc.save(outputStream);
+			PDImageXObject img = LosslessFactory.createFromImage(doc, ImageIO.read(imgStream));
+			drawImage(doc, doc.getPage(pageIdx), img, x, y, width, height);
+			save(doc, outputStream);
 		} catch (IOException e) {
 			log.error("Drawing img to PDF Exception: ", e);
 			throw(e);
 		}
 	}
 
+	/**
+	 * Save the PDF with the current save options
+	 * @param doc The PDF
+	 * @param outputStream OutputStream to the output PDF
+	 * @throws IOException if the PDF is not valid
+	 */
+	static void save(PDDocument doc, OutputStream outputStream) throws IOException {
+		save(doc, saveOptions, outputStream);
+	}
+
+	/**
+	 * Save the PDF: uncompressed streams are encoded in parallel first if enabled, then the PDF is written, linearized
+	 * if enabled. Encrypted PDFs and PDFs without pages are never linearized.
+	 * @param doc The PDF
+	 * @param options Options of this save
+	 * @param outputStream OutputStream to the output PDF
+	 * @throws IOException if the PDF is not valid
+	 */
+	static void save(PDDocument doc, SaveOptions options, OutputStream outputStream) throws IOException {
+		if (options.getEncodingThreads() > 0) {
+			StreamEncoder.encode(doc, options.getCompressionLevel(), options.getEncodingThreads());
+		}
+		if (options.isLinearized() && doc.getNumberOfPages() > 0 && (doc.getEncryption() == null || doc.isAllSecurityToBeRemoved())) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			doc.save(buffer);
+			PdfLinearizer.linearize(buffer.toByteArray(), outputStream);
+		} else {
+			doc.save(outputStream);
+		}
+	}
+
+	/**
+	 * Draw the image onto the page, scaled down to fit the given size while keeping the aspect ratio
+	 * @param doc The PDF
+	 * @param page The page to draw the image
+	 * @param img The image, which belongs to the PDF
+	 * @param x X coordinate (inch) of the drawing position, starting from upper-left corner
+	 * @param y Y coordinate (inch) of the drawing position, starting from upper-left corner
+	 * @param width Width (inch) of the image, negative to fit the rest of the page
+	 * @param height Height (inch) of the image, negative to fit the rest of the page
+	 * @throws IOException if the image cannot be drawn
+	 */
+	static void drawImage(PDDocument doc, PDPage page, PDImageXObject img, float x, float y, float width, float height) throws IOException {
+		PDRectangle rect = page.getCropBox();
+
+		width = width < 0? rect.getWidth() / DEF_DPI - x: width;
+		height = height < 0? rect.getHeight() / DEF_DPI - y: height;
+		float scale = Collections.min(Arrays.asList(width * DEF_DPI / img.getWidth(), height * DEF_DPI / img.getHeight(), 1f));
+		if (scale > 1f) {
+			scale = 1f;
+		}
+		y = rect.getUpperRightY() / DEF_DPI - y - (img.getHeight() * scale / DEF_DPI);
+
+		try (PDPageContentStream content = new PDPageContentStream(doc, page, AppendMode.APPEND, false, true)) {
+			content.drawImage(img, x * DEF_DPI, y * DEF_DPI, img.getWidth() * scale, img.getHeight() * scale);
+		}
+	}
+
 	/**
 	 * Capture the specified area of the PDF and convert into image(png)
 	 * @param inputStream InputStream to the PDF
@@ -337,20 +444,34 @@ public class PdfService {
 		log.debug("Params: pageIdx={}, x={}, y={}, width={}, height={}, dpi={}", pageIdx, x, y, width, height, dpi);
 		try (PDDocument doc = PDDocument.load(inputStream, pwd)) {
 			BufferedImage img = new PDFRenderer(doc).renderImageWithDPI(pageIdx, dpi);
-			if (x >= 0 && y >=0 && width > 0 && height > 0) {
-				int _x = Math.round(x * dpi),
-						_y = Math.round(y * dpi),
-						_w = Math.round(width * dpi),
-						_h = Math.round(height * dpi);
-				img = img.getSubimage(_x, _y, _w, _h);
-			}
-			ImageIO.write(img, "PNG", outputStream);
+			ImageIO.write(crop(img, x, y, width, height, dpi), "PNG", outputStream);
 		} catch (IOException e) {
 			log.error("Cutting PDF Exception: ", e);
 			throw(e);
 		}
 	}
 
+	/**
+	 * Cut the specified area from a rendered page, the whole image is returned if the area is not valid
+	 * @param img Image of the rendered page
+	 * @param x X coordinate (inch) of the capture area, starting from upper-left corner
+	 * @param y Y coordinate (inch) of the capture area, starting from upper-left corner
+	 * @param width Width (inch) of the capture area
+	 * @param height Height (inch) of the capture area
+	 * @param dpi The DPI the page was rendered with
+	 * @return Image of the capture area
+	 */
+	static BufferedImage crop(BufferedImage img, float x, float y, float width, float height, float dpi) {
+		if (x >= 0 && y >=0 && width > 0 && height > 0) {
+			int _x = Math.round(x * dpi),
+					_y = Math.round(y * dpi),
+					_w = Math.round(width * dpi),
+					_h = Math.round(height * dpi);
+			return img.getSubimage(_x, _y, _w, _h);
+		}
+		return img;
+	}
+
 	/**
 	 * Add watermark to the PDF
 	 * @param inputStream InputStream to the PDF
@@ -373,6 +494,20 @@ public class PdfService {
 	 */
 	 public static void watermark(InputStream inputStream, String pwd, InputStream watermarkStream, String watermarkPwd, OutputStream outputStream) throws IOException {
 		log.info("Adding watermark to PDF");
+		watermark(inputStream, pwd, watermarkStream, watermarkPwd, saveOptions, outputStream);
+	}
+
+	/**
+	 * Add watermark to the PDF with the given save options
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @param watermarkStream InputStream to the watermark PDF
+	 * @param watermarkPwd Password to decrypt the watermark PDF
+	 * @param options Options of this save
+	 * @param outputStream OutputStream to the output PDF
+	 * @throws IOException if the PDF is not valid
+	 */
+	static void watermark(InputStream inputStream, String pwd, InputStream watermarkStream, String watermarkPwd, SaveOptions options, OutputStream outputStream) throws IOException {
 		try (PDDocument doc = PDDocument.load(inputStream, pwd);
 			 PDDocument watermarkDoc = PDDocument.load(watermarkStream, watermarkPwd);
 			 Overlay overlay = new Overlay()) {
@@ -380,13 +515,44 @@ public class PdfService {
 			overlay.setAllPagesOverlayPDF(watermarkDoc);
 			overlay.setOverlayPosition(Overlay.Position.FOREGROUND);
 			overlay.overlay(new HashMap<> ());
-			doc.save(outputStream);
+			save(doc, options, outputStream);
 		} catch (IOException e) {
 			log.error("Adding watermark to PDF Exception: ", e);
 			throw(e);
 		}
 	}
 
+	/**
+	 * Compute the fingerprint of each page without rendering, see {@link PdfSession#fingerprint(int)}
+	 * @param inputStream InputStream to the PDF
+	 * @return Hex encoded fingerprint of each page
+	 * @throws IOException if the PDF is not valid
+	 */
+	public static List<String> fingerprint(InputStream inputStream) throws IOException {
+		return fingerprint(inputStream, null);
+	}
+
+	/**
+	 * Compute the fingerprint of each page without rendering, see {@link PdfSession#fingerprint(int)}
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @return Hex encoded fingerprint of each page
+	 * @throws IOException if the PDF is not valid
+	 */
+	public static List<String> fingerprint(InputStream inputStream, String pwd) throws IOException {
+		log.info("Fingerprinting PDF pages");
+		try (PDDocument doc = PDDocument.load(inputStream, pwd)) {
+			List<String> fingerprints = new ArrayList<>();
+			for (PDPage page : doc.getPages()) {
+				fingerprints.add(PageFingerprint.of(page));
+			}
+			return fingerprints;
+		} catch (IOException e) {
+			log.error("Fingerprinting PDF pages Exception: ", e);
+			throw(e);
+		}
+	}
+
 	/**
 	 * Get meta info from the PDF
 	 * @param inputStream InputStream to the PDF
@@ -484,7 +650,7 @@ public class PdfService {
 				}
 			}
 			doc.setDocumentInformation(info);
-			doc.save(outputStream);
+			save(doc, outputStream);
 		} catch (IOException e) {
 			log.error("Setting Info to PDF Exception: ", e);
 			throw(e);
@@ -540,7 +706,7 @@ public class PdfService {
 		log.info("Setting PDF Version");
 		try (PDDocument doc = PDDocument.load(inputStream, pwd)) {
 			doc.setVersion(version);
-			doc.save(outputStream);
+			save(doc, outputStream);
 		} catch (IOException e) {
 			log.error("Setting PDF Version Exception: ", e);
 			throw(e);
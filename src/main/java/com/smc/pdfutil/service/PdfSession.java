@@ -0,0 +1,293 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.PageDrawer;
+import org.apache.pdfbox.rendering.PageDrawerParameters;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A PDF kept loaded between calls, together with a long-lived PDFRenderer and PDFTextStripper, so that fonts, images
+ * and other parsed resources stay warm across pages of the same document. The resource cache is bounded by the given
+ * number of entries per kind of resource.
+ * <p>
+ * PDDocument is not thread-safe, so calls on one session are serialized. Open one session per document and thread to
+ * work on several documents in parallel.
+ */
+public class PdfSession implements Closeable {
+	private static final Logger log = LoggerFactory.getLogger(PdfSession.class);
+
+	public static final int DEF_RESOURCE_CACHE_SIZE = 256;
+
+	private static final RenderingHints PREVIEW_HINTS = new RenderingHints(null);
+	static {
+		PREVIEW_HINTS.put(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+		PREVIEW_HINTS.put(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+		PREVIEW_HINTS.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+		PREVIEW_HINTS.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		PREVIEW_HINTS.put(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_SPEED);
+	}
+
+	private final PDDocument doc;
+	private final BoundedResourceCache resourceCache;
+	private final CancellableRenderer renderer;
+	private final PDFTextStripper stripper;
+	private boolean closed = false;
+
+	/**
+	 * Load the PDF into a new session
+	 * @param inputStream InputStream to the PDF
+	 * @throws IOException if the PDF is not valid
+	 */
+	public PdfSession(InputStream inputStream) throws IOException {
+		this(inputStream, null, DEF_RESOURCE_CACHE_SIZE);
+	}
+
+	/**
+	 * Load the PDF into a new session
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @throws IOException if the PDF is not valid
+	 */
+	public PdfSession(InputStream inputStream, String pwd) throws IOException {
+		this(inputStream, pwd, DEF_RESOURCE_CACHE_SIZE);
+	}
+
+	/**
+	 * Load the PDF into a new session
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @param resourceCacheSize Maximum number of cached resources per kind (font, image, color space, ...)
+	 * @throws IOException if the PDF is not valid
+	 */
+	public PdfSession(InputStream inputStream, String pwd, int resourceCacheSize) throws IOException {
+		log.info("Opening PDF session");
+		log.debug("Params: resourceCacheSize={}", resourceCacheSize);
+		try {
+			doc = PDDocument.load(inputStream, pwd);
+		} catch (IOException e) {
+			log.error("Opening PDF session Exception: ", e);
+			throw(e);
+		}
+		resourceCache = new BoundedResourceCache(resourceCacheSize);
+		doc.setResourceCache(resourceCache);
+		renderer = new CancellableRenderer(doc);
+		stripper = new PDFTextStripper();
+	}
+
+	/**
+	 * @return Number of pages of the PDF
+	 * @throws IOException if the session is closed
+	 */
+	public synchronized int getPageCount() throws IOException {
+		ensureOpen();
+		return doc.getNumberOfPages();
+	}
+
+	/**
+	 * Read the text from the whole PDF.
+	 * @return Text of the PDF
+	 * @throws IOException if the PDF is not valid
+	 */
+	public synchronized String read() throws IOException {
+		ensureOpen();
+		return read(0, doc.getNumberOfPages() - 1);
+	}
+
+	/**
+	 * Read the text from the specified pages.
+	 * @param startPageIdx Index of the first page to read
+	 * @param endPageIdx Index of the last page to read (inclusive)
+	 * @return Text of the pages
+	 * @throws IOException if the PDF is not valid
+	 */
+	public synchronized String read(int startPageIdx, int endPageIdx) throws IOException {
+		ensureOpen();
+		log.debug("Reading PDF session: startPageIdx={}, endPageIdx={}", startPageIdx, endPageIdx);
+		stripper.setStartPage(startPageIdx + 1);
+		stripper.setEndPage(endPageIdx + 1);
+		return stripper.getText(doc);
+	}
+
+	/**
+	 * Compute a stable fingerprint of the page from its content streams, resources, annotations and page boxes,
+	 * without rendering. Pages with the same fingerprint look the same, so their text and renders can be reused.
+	 * @param pageIdx Index of the page
+	 * @return Hex encoded SHA-256 fingerprint of the page
+	 * @throws IOException if the PDF is not valid
+	 */
+	public synchronized String fingerprint(int pageIdx) throws IOException {
+		ensureOpen();
+		return PageFingerprint.of(doc.getPage(pageIdx));
+	}
+
+	/**
+	 * Render the page into image
+	 * @param pageIdx Index of page to render
+	 * @param dpi The DPI of the output image
+	 * @return Image of the page
+	 * @throws IOException if the PDF is not valid
+	 */
+	public synchronized BufferedImage render(int pageIdx, float dpi) throws IOException {
+		ensureOpen();
+		log.debug("Rendering PDF session: pageIdx={}, dpi={}", pageIdx, dpi);
+		return renderer.renderImageWithDPI(pageIdx, dpi);
+	}
+
+	/**
+	 * Capture the whole page and convert into image(png)
+	 * @param pageIdx Index of page to capture
+	 * @param dpi The DPI of the output image
+	 * @param outputStream OutputStream to the output image(png)
+	 * @throws IOException if the PDF is not valid
+	 */
+	public void capture(int pageIdx, float dpi, OutputStream outputStream) throws IOException {
+		capture(pageIdx, -1, -1, -1, -1, dpi, outputStream);
+	}
+
+	/**
+	 * Capture the specified area of the page and convert into image(png)
+	 * @param pageIdx Index of page to capture
+	 * @param x X coordinate (inch) of the capture area, starting from upper-left corner
+	 * @param y Y coordinate (inch) of the capture area, starting from upper-left corner
+	 * @param width Width (inch) of the capture area
+	 * @param height Height (inch) of the capture area
+	 * @param dpi The DPI of the output image
+	 * @param outputStream OutputStream to the output image(png)
+	 * @throws IOException if the PDF is not valid
+	 */
+	public void capture(int pageIdx, float x, float y, float width, float height, float dpi, OutputStream outputStream) throws IOException {
+		BufferedImage img = render(pageIdx, dpi);
+		ImageIO.write(PdfService.crop(img, x, y, width, height, dpi), "PNG", outputStream);
+	}
+
+	/**
+	 * Capture the whole page progressively: a fast low-quality preview first, then the full-quality image. The preview
+	 * is rendered without antialiasing and with image subsampling allowed. Both passes share the parsed page and its
+	 * cached resources. Setting the cancel flag from another thread stops the render at the next content stream
+	 * operator.
+	 * @param pageIdx Index of page to capture
+	 * @param previewDpi The DPI of the preview image
+	 * @param dpi The DPI of the full-quality image
+	 * @param previewStream OutputStream to the preview image(png)
+	 * @param outputStream OutputStream to the full-quality image(png)
+	 * @param cancelled Flag to cancel the capture, null if not cancellable
+	 * @return true if the full-quality image is written, false if cancelled
+	 * @throws IOException if the PDF is not valid
+	 */
+	public synchronized boolean captureProgressive(int pageIdx, float previewDpi, float dpi, OutputStream previewStream,
+												   OutputStream outputStream, AtomicBoolean cancelled) throws IOException {
+		ensureOpen();
+		log.debug("Capturing PDF session progressively: pageIdx={}, previewDpi={}, dpi={}", pageIdx, previewDpi, dpi);
+		renderer.cancelled = cancelled;
+		try {
+			renderer.setRenderingHints(PREVIEW_HINTS);
+			renderer.setSubsamplingAllowed(true);
+			BufferedImage preview = renderer.renderImageWithDPI(pageIdx, previewDpi);
+			if (isCancelled(cancelled)) {
+				return false;
+			}
+			ImageIO.write(preview, "PNG", previewStream);
+			previewStream.flush();
+
+			renderer.setRenderingHints(null);
+			renderer.setSubsamplingAllowed(false);
+			BufferedImage img = renderer.renderImageWithDPI(pageIdx, dpi);
+			if (isCancelled(cancelled)) {
+				return false;
+			}
+			ImageIO.write(img, "PNG", outputStream);
+			return true;
+		} catch (CancelledException e) {
+			log.debug("Capturing PDF session cancelled: pageIdx={}", pageIdx);
+			return false;
+		} finally {
+			renderer.cancelled = null;
+			renderer.setRenderingHints(null);
+			renderer.setSubsamplingAllowed(false);
+		}
+	}
+
+	/**
+	 * @return Number of resources currently cached for the document
+	 */
+	public int getResourceCacheSize() {
+		return resourceCache.size();
+	}
+
+	/**
+	 * Close the PDF and drop all cached resources
+	 * @throws IOException if the PDF cannot be closed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		log.info("Closing PDF session");
+		closed = true;
+		resourceCache.clear();
+		doc.close();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("PDF session is closed");
+		}
+	}
+
+	private static boolean isCancelled(AtomicBoolean cancelled) {
+		return cancelled != null && cancelled.get();
+	}
+
+	private static class CancelledException extends InterruptedIOException {
+		private static final long serialVersionUID = 1L;
+
+		CancelledException() {
+			super("Capture cancelled");
+		}
+	}
+
+	/**
+	 * Renderer that checks the cancel flag before each content stream operator
+	 */
+	private static class CancellableRenderer extends PDFRenderer {
+		private volatile AtomicBoolean cancelled;
+
+		CancellableRenderer(PDDocument doc) {
+			super(doc);
+		}
+
+		@Override
+		protected PageDrawer createPageDrawer(PageDrawerParameters parameters) throws IOException {
+			AtomicBoolean flag = cancelled;
+			if (flag == null) {
+				return super.createPageDrawer(parameters);
+			}
+			return new PageDrawer(parameters) {
+				@Override
+				protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+					if (flag.get()) {
+						throw new CancelledException();
+					}
+					super.processOperator(operator, operands);
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache in front of the idempotent {@link PdfService} operations ({@code split}, {@code capture}, {@code getInfo},
+ * {@code watermark}). Results are keyed by the operation, the SHA-256 of every input and password, the operation
+ * parameters and the save options. Identical requests that arrive while the first one is still running wait for its
+ * result instead of running again. Results are kept in an LRU memory tier and optionally a disk tier, each bounded by
+ * total size, and expire after the given time to live.
+ */
+public class ResultCache {
+	private static final Logger log = LoggerFactory.getLogger(ResultCache.class);
+
+	private interface Operation {
+		byte[] run() throws IOException;
+	}
+
+	private final TieredStore store;
+	private final ConcurrentHashMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Create a memory only cache
+	 * @param maxMemoryBytes Maximum total size (byte) of results kept in memory
+	 * @param ttlMillis Time (ms) a result stays valid after it is computed
+	 */
+	public ResultCache(long maxMemoryBytes, long ttlMillis) {
+		this.store = new TieredStore(maxMemoryBytes, ttlMillis);
+	}
+
+	/**
+	 * Create a cache with both memory and disk tier
+	 * @param maxMemoryBytes Maximum total size (byte) of results kept in memory
+	 * @param diskDir Directory to persist the results, null to disable the disk tier
+	 * @param maxDiskBytes Maximum total size (byte) of results kept on disk
+	 * @param ttlMillis Time (ms) a result stays valid after it is computed
+	 * @throws IOException if the directory cannot be created
+	 */
+	public ResultCache(long maxMemoryBytes, File diskDir, long maxDiskBytes, long ttlMillis) throws IOException {
+		this.store = new TieredStore("result", maxMemoryBytes, diskDir, ".bin", maxDiskBytes, ttlMillis);
+	}
+
+	/**
+	 * Split the PDF, served from cache when possible, see {@link PdfService#split(InputStream, String, int[], OutputStream)}
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @param pagesIdx Index of pages that will be included in the output PDF
+	 * @param outputStream OutputStream to the output PDF
+	 * @throws IOException if the PDF is not valid
+	 */
+	public void split(InputStream inputStream, String pwd, int[] pagesIdx, OutputStream outputStream) throws IOException {
+		byte[] pdf = IOUtils.toByteArray(inputStream);
+		SaveOptions options = PdfService.getSaveOptions();
+		String key = "split:" + hash(pdf) + ":" + hash(pwd) + ":" + Arrays.toString(pagesIdx) + ":" + saveKey(options);
+		outputStream.write(get(key, () -> {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			PdfService.split(new ByteArrayInputStream(pdf), pwd, pagesIdx, options, buffer);
+			return buffer.toByteArray();
+		}));
+	}
+
+	/**
+	 * Capture the whole page of the PDF into image(png), served from cache when possible
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @param pageIdx Index of page to capture
+	 * @param dpi The DPI of the output image
+	 * @param outputStream OutputStream to the output image(png)
+	 * @throws IOException if the PDF is not valid
+	 */
+	public void capture(InputStream inputStream, String pwd, int pageIdx, float dpi, OutputStream outputStream) throws IOException {
+		capture(inputStream, pwd, pageIdx, -1, -1, -1, -1, dpi, outputStream);
+	}
+
+	/**
+	 * Capture the specified area of the PDF into image(png), served from cache when possible
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @param pageIdx Index of page to capture
+	 * @param x X coordinate (inch) of the capture area, starting from upper-left corner
+	 * @param y Y coordinate (inch) of the capture area, starting from upper-left corner
+	 * @param width Width (inch) of the capture area
+	 * @param height Height (inch) of the capture area
+	 * @param dpi The DPI of the output image
+	 * @param outputStream OutputStream to the output image(png)
+	 * @throws IOException if the PDF is not valid
+	 */
+	public void capture(InputStream inputStream, String pwd, int pageIdx, float x, float y, float width, float height, float dpi, OutputStream outputStream) throws IOException {
+		byte[] pdf = IOUtils.toByteArray(inputStream);
+		String key = "capture:" + hash(pdf) + ":" + hash(pwd) + ":" + pageIdx + ":" + dpi + ":" + x + "," + y + "," + width + "," + height;
+		outputStream.write(get(key, () -> {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			PdfService.capture(new ByteArrayInputStream(pdf), pwd, pageIdx, x, y, width, height, dpi, buffer);
+			return buffer.toByteArray();
+		}));
+	}
+
+	/**
+	 * Get meta info from the PDF, served from cache when possible
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @return Map that includes meta info of the PDF
+	 * @throws IOException if the PDF is not valid
+	 */
+	public Map<String, String> getInfo(InputStream inputStream, String pwd) throws IOException {
+		byte[] pdf = IOUtils.toByteArray(inputStream);
+		String key = "getInfo:" + hash(pdf) + ":" + hash(pwd);
+		byte[] data = get(key, () -> {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(buffer)) {
+				Map<String, String> info = PdfService.getInfo(new ByteArrayInputStream(pdf), pwd);
+				out.writeInt(info.size());
+				for (Map.Entry<String, String> entry : info.entrySet()) {
+					writeString(out, entry.getKey());
+					writeString(out, entry.getValue());
+				}
+			}
+			return buffer.toByteArray();
+		});
+		Map<String, String> info = new HashMap<>();
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+			for (int i = in.readInt(); i > 0; i--) {
+				info.put(readString(in), readString(in));
+			}
+		}
+		return info;
+	}
+
+	/**
+	 * Add watermark to the PDF, served from cache when possible
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @param watermarkStream InputStream to the watermark PDF
+	 * @param watermarkPwd Password to decrypt the watermark PDF
+	 * @param outputStream OutputStream to the output PDF
+	 * @throws IOException if the PDF is not valid
+	 */
+	public void watermark(InputStream inputStream, String pwd, InputStream watermarkStream, String watermarkPwd, OutputStream outputStream) throws IOException {
+		byte[] pdf = IOUtils.toByteArray(inputStream);
+		byte[] watermark = IOUtils.toByteArray(watermarkStream);
+		SaveOptions options = PdfService.getSaveOptions();
+		String key = "watermark:" + hash(pdf) + ":" + hash(pwd) + ":" + hash(watermark) + ":" + hash(watermarkPwd) + ":" + saveKey(options);
+		outputStream.write(get(key, () -> {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			PdfService.watermark(new ByteArrayInputStream(pdf), pwd, new ByteArrayInputStream(watermark), watermarkPwd, options, buffer);
+			return buffer.toByteArray();
+		}));
+	}
+
+	/**
+	 * Remove all entries from the memory tier
+	 */
+	public void clear() {
+		store.clearMemory();
+	}
+
+	public long getHitCount() {
+		return memoryHits.get();
+	}
+
+	public long getDiskHitCount() {
+		return diskHits.get();
+	}
+
+	/**
+	 * @return Number of requests that waited for an identical request in progress
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return Ratio of requests not executed (cache hits and coalesced requests), 0 if no request has been made
+	 */
+	public double getHitRatio() {
+		long hits = memoryHits.get() + diskHits.get() + coalesced.get();
+		long total = hits + misses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * @return Total size (byte) of results kept in memory
+	 */
+	public long getMemoryBytes() {
+		return store.getMemoryBytes();
+	}
+
+	private byte[] get(String key, Operation operation) throws IOException {
+		byte[] data = store.getMemory(key);
+		if (data != null) {
+			memoryHits.incrementAndGet();
+			return data;
+		}
+		if ((data = store.getDisk(key)) != null) {
+			diskHits.incrementAndGet();
+			return data;
+		}
+
+		CompletableFuture<byte[]> future = new CompletableFuture<>();
+		CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, future);
+		if (running != null) {
+			coalesced.incrementAndGet();
+			log.debug("Result cache: coalesced key={}", key);
+			return await(running);
+		}
+		try {
+			// an identical request may have finished between the lookup above and putIfAbsent
+			if ((data = store.getMemory(key)) != null || (data = store.getDisk(key)) != null) {
+				coalesced.incrementAndGet();
+				future.complete(data);
+				return data;
+			}
+			misses.incrementAndGet();
+			data = operation.run();
+			store.put(key, data);
+			future.complete(data);
+		} catch (IOException | RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key);
+		}
+		log.debug("Result cache: key={}, hits={}, diskHits={}, coalesced={}, misses={}",
+				key, memoryHits.get(), diskHits.get(), coalesced.get(), misses.get());
+		return data;
+	}
+
+	private static byte[] await(CompletableFuture<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Waiting for cached result interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Write the string as length-prefixed UTF-8, unlike {@link DataOutputStream#writeUTF} without the 64KB limit
+	 * @param out Output to write to
+	 * @param str String to write, may be null
+	 * @throws IOException if the output cannot be written
+	 */
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		if (str == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Read a string written by {@link #writeString}
+	 * @param in Input to read from
+	 * @return The string, may be null
+	 * @throws IOException if the input cannot be read
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String hash(byte[] data) {
+		return Hashes.sha256(data);
+	}
+
+	private static String hash(String pwd) {
+		return TieredStore.passwordKey(pwd);
+	}
+
+	/**
+	 * Save options that change the written PDF, the number of encoding threads does not. The same options are passed
+	 * to the operation, so a concurrent {@link PdfService#setSaveOptions} cannot store a result under the wrong key.
+	 */
+	private static String saveKey(SaveOptions options) {
+		return "lin=" + options.isLinearized() + ",enc=" + (options.getEncodingThreads() > 0 ? options.getCompressionLevel() : "off");
+	}
+}
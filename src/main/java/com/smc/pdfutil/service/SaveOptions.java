@@ -0,0 +1,75 @@
+package com.smc.pdfutil.service;
+
+import java.util.zip.Deflater;
+
+/**
+ * Options applied whenever {@link PdfService} writes a PDF. Instances are immutable, each {@code with} method returns
+ * a copy, so options can be shared between threads and swapped while saves are running.
+ */
+public final class SaveOptions {
+	/**
+	 * Write streams as they are, not linearized
+	 */
+	public static final SaveOptions DEFAULT = new SaveOptions();
+
+	private final boolean linearized;
+	private final int encodingThreads;
+	private final int compressionLevel;
+
+	public SaveOptions() {
+		this(false, 0, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	private SaveOptions(boolean linearized, int encodingThreads, int compressionLevel) {
+		this.linearized = linearized;
+		this.encodingThreads = encodingThreads;
+		this.compressionLevel = compressionLevel;
+	}
+
+	public boolean isLinearized() {
+		return linearized;
+	}
+
+	/**
+	 * @param linearized Whether to write linearized ("fast web view") PDFs, so that clients using range requests can
+	 *                   show the first page before the whole file is downloaded. Encrypted output is never linearized.
+	 * @return Copy of these options with the given value
+	 */
+	public SaveOptions withLinearized(boolean linearized) {
+		return new SaveOptions(linearized, encodingThreads, compressionLevel);
+	}
+
+	public int getEncodingThreads() {
+		return encodingThreads;
+	}
+
+	/**
+	 * @param encodingThreads Maximum number of uncompressed streams Flate-encoded in parallel before writing, 0 to write
+	 *                        the streams as they are. The encoding runs on a pool shared by all saves, sized to the
+	 *                        number of processors. The output is the same for any number of threads.
+	 * @return Copy of these options with the given value
+	 */
+	public SaveOptions withEncodingThreads(int encodingThreads) {
+		return new SaveOptions(linearized, encodingThreads, compressionLevel);
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/**
+	 * @param compressionLevel Flate compression level (0 - 9) of the streams encoded before writing, -1 for default
+	 * @return Copy of these options with the given value
+	 */
+	public SaveOptions withCompressionLevel(int compressionLevel) {
+		if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+		}
+		return new SaveOptions(linearized, encodingThreads, compressionLevel);
+	}
+
+	@Override
+	public String toString() {
+		return "linearized=" + linearized + ", encodingThreads=" + encodingThreads + ", compressionLevel=" + compressionLevel;
+	}
+}
@@ -0,0 +1,192 @@
+package com.smc.pdfutil.service;
+
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDPageContentStream.AppendMode;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Formatter;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Stamp a text label, e.g. a Bates number such as "ACME-000001", on every page of a stream of PDFs. The label is a
+ * {@link Formatter} template that receives the page counter, which carries on from one PDF to the next.
+ * <p>
+ * The font is parsed once per service and embedded once per output PDF; with an embedded TrueType font only the glyphs
+ * used by the labels of that PDF are kept in the subset. PDFs are loaded with a temp file as scratch buffer, so heap use
+ * does not grow with the size of the input.
+ */
+public class StampService implements Closeable {
+	private static final Logger log = LoggerFactory.getLogger(StampService.class);
+
+	private static final float DEF_DPI = 72f;
+
+	/**
+	 * Destination of each stamped PDF. The returned OutputStream is closed after the PDF is written.
+	 */
+	public interface DocumentOutput {
+		/**
+		 * @param docIdx Index of the PDF in the stream
+		 * @return OutputStream to the stamped PDF
+		 * @throws IOException if the output cannot be opened
+		 */
+		OutputStream open(int docIdx) throws IOException;
+	}
+
+	private final String template;
+	private final StringBuilder label = new StringBuilder();
+	private final Formatter formatter = new Formatter(label, Locale.ROOT);
+	private TrueTypeFont ttf;
+	private float fontSize = 10f;
+	private float x = 0.5f;
+	private float y = 0.5f;
+	private long nextNumber = 1;
+
+	/**
+	 * @param template Label template, formatted with the page counter as the only argument, e.g. "ACME-%06d".
+	 *                 A template without format specifier stamps the same text on every page.
+	 */
+	public StampService(String template) {
+		this.template = template;
+		format(0);
+	}
+
+	/**
+	 * Embed a TrueType font instead of the standard Helvetica font, e.g. for non-Latin labels
+	 * @param fontStream InputStream to the TrueType font
+	 * @throws IOException if the font is not valid
+	 */
+	public synchronized void setFont(InputStream fontStream) throws IOException {
+		TrueTypeFont font = new TTFParser().parse(fontStream);
+		if (ttf != null) {
+			ttf.close();
+		}
+		ttf = font;
+	}
+
+	/**
+	 * @param fontSize Font size (point) of the label
+	 */
+	public synchronized void setFontSize(float fontSize) {
+		this.fontSize = fontSize;
+	}
+
+	/**
+	 * @param x X coordinate (inch) of the label, starting from upper-left corner
+	 * @param y Y coordinate (inch) of the label baseline, starting from upper-left corner
+	 */
+	public synchronized void setPosition(float x, float y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	/**
+	 * @param nextNumber Counter of the next stamped page
+	 */
+	public synchronized void setNextNumber(long nextNumber) {
+		this.nextNumber = nextNumber;
+	}
+
+	/**
+	 * @return Counter of the next stamped page
+	 */
+	public synchronized long getNextNumber() {
+		return nextNumber;
+	}
+
+	/**
+	 * Stamp every page of the PDF, an encrypted PDF is written without encryption. If stamping or saving fails, the
+	 * counter is reset to its value before this PDF, so the sequence has no gaps.
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @param outputStream OutputStream to the output PDF
+	 * @return Number of pages stamped
+	 * @throws IOException if the PDF is not valid
+	 */
+	public synchronized int stamp(InputStream inputStream, String pwd, OutputStream outputStream) throws IOException {
+		log.info("Stamping PDF");
+		log.debug("Params: template={}, nextNumber={}, x={}, y={}, fontSize={}", template, nextNumber, x, y, fontSize);
+		long firstNumber = nextNumber;
+		try (PDDocument doc = PDDocument.load(inputStream, pwd, MemoryUsageSetting.setupTempFileOnly())) {
+			doc.setAllSecurityToBeRemoved(true);
+			int pageNum = stamp(doc);
+			PdfService.save(doc, outputStream);
+			return pageNum;
+		} catch (IOException e) {
+			nextNumber = firstNumber;
+			log.error("Stamping PDF Exception: ", e);
+			throw(e);
+		} catch (RuntimeException e) {
+			nextNumber = firstNumber;
+			throw e;
+		}
+	}
+
+	/**
+	 * Stamp every page of each PDF, the counter carries on across the PDFs in stream order
+	 * @param inputStream Map of InputStream to the PDF and corresponding password (if any)
+	 * @param output Destination of each stamped PDF
+	 * @return Number of PDFs stamped
+	 * @throws IOException if a PDF is not valid
+	 */
+	public synchronized int stamp(Stream<Map.Entry<InputStream, String>> inputStream, DocumentOutput output) throws IOException {
+		int docIdx = 0;
+		for (Iterator<Map.Entry<InputStream, String>> i = inputStream.iterator(); i.hasNext(); docIdx++) {
+			Map.Entry<InputStream, String> source = i.next();
+			try (InputStream is = source.getKey();
+				 OutputStream os = output.open(docIdx)) {
+				stamp(is, source.getValue(), os);
+			}
+		}
+		log.debug("Stamped PDFs: docs={}, nextNumber={}", docIdx, nextNumber);
+		return docIdx;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (ttf != null) {
+			ttf.close();
+			ttf = null;
+		}
+	}
+
+	private int stamp(PDDocument doc) throws IOException {
+		PDFont font = ttf == null ? PDType1Font.HELVETICA : PDType0Font.load(doc, ttf, true);
+		int pageNum = 0;
+		for (PDPage page : doc.getPages()) {
+			PDRectangle rect = page.getCropBox();
+			try (PDPageContentStream content = new PDPageContentStream(doc, page, AppendMode.APPEND, true, true)) {
+				content.beginText();
+				content.setFont(font, fontSize);
+				content.newLineAtOffset(rect.getLowerLeftX() + x * DEF_DPI, rect.getUpperRightY() - y * DEF_DPI);
+				content.showText(format(nextNumber));
+				content.endText();
+			}
+			nextNumber++;
+			pageNum++;
+		}
+		return pageNum;
+	}
+
+	private String format(long number) {
+		label.setLength(0);
+		formatter.format(template, number);
+		return label.toString();
+	}
+}
@@ -0,0 +1,187 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Flate-encode the unfiltered streams of a document on a pool of threads before it is written. PDFBox writes streams
+ * as they are, so content streams created without compression, overlay forms and similar would otherwise be stored
+ * uncompressed. Stream data is read and written back on the calling thread, only the compression runs in parallel;
+ * Deflater output depends only on the data and the level, so the saved file is the same for any number of threads.
+ * <p>
+ * Streams are encoded through a window of at most {@code threads} streams and {@link #MAX_PENDING_BYTES} of raw data,
+ * each result written back as soon as it is the oldest in the window, so memory use does not grow with the size of
+ * the document. All saves share one pool of daemon threads sized to the number of processors.
+ */
+class StreamEncoder {
+	private static final Logger log = LoggerFactory.getLogger(StreamEncoder.class);
+
+	/**
+	 * Streams smaller than this are left as they are, the Flate overhead would outweigh the saving
+	 */
+	private static final int MIN_LENGTH = 64;
+
+	/**
+	 * Maximum total size (byte) of raw stream data read but not yet written back
+	 */
+	static final long MAX_PENDING_BYTES = 32L * 1024 * 1024;
+
+	private static class PoolHolder {
+		private static final AtomicInteger threadCount = new AtomicInteger();
+		private static final ExecutorService POOL = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+			Thread thread = new Thread(r, "pdfutil-stream-encoder-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static class Pending {
+		private final COSStream stream;
+		private final int length;
+		private final Future<byte[]> deflated;
+
+		Pending(COSStream stream, int length, Future<byte[]> deflated) {
+			this.stream = stream;
+			this.length = length;
+			this.deflated = deflated;
+		}
+	}
+
+	private StreamEncoder() {
+	}
+
+	/**
+	 * @param doc The PDF
+	 * @param level Deflater compression level (0 - 9, -1 for default)
+	 * @param threads Maximum number of streams encoded in parallel
+	 * @return Number of encoded streams
+	 * @throws IOException if a stream cannot be read
+	 */
+	static int encode(PDDocument doc, int level, int threads) throws IOException {
+		List<COSStream> streams = collect(doc);
+		Deque<Pending> window = new ArrayDeque<>();
+		long pendingBytes = 0;
+		int encoded = 0;
+		try {
+			for (COSStream stream : streams) {
+				byte[] data;
+				try (InputStream is = stream.createRawInputStream()) {
+					data = IOUtils.toByteArray(is);
+				}
+				Future<byte[]> deflated = threads > 1
+						? PoolHolder.POOL.submit(() -> deflate(data, level))
+						: CompletableFuture.completedFuture(deflate(data, level));
+				window.add(new Pending(stream, data.length, deflated));
+				pendingBytes += data.length;
+				while (!window.isEmpty() && (window.size() >= Math.max(threads, 1) || pendingBytes > MAX_PENDING_BYTES)) {
+					Pending pending = window.poll();
+					pendingBytes -= pending.length;
+					encoded += complete(pending) ? 1 : 0;
+				}
+			}
+			while (!window.isEmpty()) {
+				encoded += complete(window.poll()) ? 1 : 0;
+			}
+		} finally {
+			for (Pending pending : window) {
+				pending.deflated.cancel(true);
+			}
+		}
+		log.debug("Encoded streams: candidates={}, encoded={}, threads={}, level={}", streams.size(), encoded, threads, level);
+		return encoded;
+	}
+
+	/**
+	 * Write the deflated data back if it is smaller than the raw data
+	 * @return true if the stream was encoded
+	 */
+	private static boolean complete(Pending pending) throws IOException {
+		byte[] deflated;
+		try {
+			deflated = pending.deflated.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Encoding streams interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		if (deflated.length >= pending.length) {
+			return false;
+		}
+		try (OutputStream os = pending.stream.createRawOutputStream()) {
+			os.write(deflated);
+		}
+		pending.stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+		pending.stream.removeItem(COSName.DECODE_PARMS);
+		return true;
+	}
+
+	/**
+	 * Find the unfiltered streams reachable from the trailer, in a stable order
+	 */
+	private static List<COSStream> collect(PDDocument doc) {
+		List<COSStream> streams = new ArrayList<>();
+		Set<COSBase> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<COSBase> stack = new ArrayDeque<>();
+		stack.push(doc.getDocument().getTrailer());
+		while (!stack.isEmpty()) {
+			COSBase base = stack.pop();
+			if (base instanceof COSObject) {
+				base = ((COSObject) base).getObject();
+			}
+			if (!(base instanceof COSDictionary || base instanceof COSArray) || !visited.add(base)) {
+				continue;
+			}
+			List<COSBase> children = new ArrayList<>();
+			if (base instanceof COSArray) {
+				for (COSBase item : (COSArray) base) {
+					children.add(item);
+				}
+			} else {
+				children.addAll(((COSDictionary) base).getValues());
+			}
+			for (int i = children.size() - 1; i >= 0; i--) {
+				stack.push(children.get(i));
+			}
+			if (base instanceof COSStream && isCandidate((COSStream) base)) {
+				streams.add((COSStream) base);
+			}
+		}
+		return streams;
+	}
+
+	private static boolean isCandidate(COSStream stream) {
+		// XMP metadata is left readable for tools that scan the file without a PDF parser
+		return stream.getFilters() == null && stream.getLength() >= MIN_LENGTH
+				&& !COSName.METADATA.equals(stream.getCOSName(COSName.TYPE));
+	}
+
+	private static byte[] deflate(byte[] data, int level) {
+		Deflater deflater = new Deflater(level);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(data.length / 2, 64));
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Write a PDF page by page straight to the OutputStream, without holding the page tree in memory. Each page and its
+ * content stream are written as soon as they are added; the page tree, cross reference table and trailer are written
+ * by {@link #close()}. Offsets and page references are spooled to scratch files, so memory use does not grow with the
+ * page count. If adding a page fails, or {@link #abort()} is called, {@link #close()} leaves the output without a
+ * trailer, so a partial PDF is never mistaken for a complete one.
+ * <p>
+ * Every page shares a resource dictionary with the standard Helvetica font as {@code /F1}, so page content can place
+ * text without embedding a font, e.g. {@code BT /F1 12 Tf 72 720 Td (Page 1) Tj ET}.
+ */
+public class StreamingPdfWriter implements Closeable {
+	private static final Logger log = LoggerFactory.getLogger(StreamingPdfWriter.class);
+
+	private static final int CATALOG_OBJ = 1;
+	private static final int PAGES_OBJ = 2;
+	private static final int RESOURCES_OBJ = 3;
+	private static final int FONT_OBJ = 4;
+	private static final int FIRST_PAGE_OBJ = 5;
+
+	/**
+	 * Producer of the content stream of a page
+	 */
+	public interface PageContent {
+		/**
+		 * Write the content stream operators of the page
+		 * @param pageIdx Index of the page
+		 * @param content OutputStream to the uncompressed content stream
+		 * @throws IOException if the content cannot be written
+		 */
+		void write(int pageIdx, OutputStream content) throws IOException;
+	}
+
+	private final CountingOutputStream out;
+	private final String mediaBox;
+	private final File xrefFile;
+	private final File kidsFile;
+	private final Writer xref;
+	private final Writer kids;
+	private final ByteArrayOutputStream contentBuffer = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream deflateBuffer = new ByteArrayOutputStream();
+
+	private int nextObj = FIRST_PAGE_OBJ;
+	private int pageCount = 0;
+	private boolean closed = false;
+	private boolean failed = false;
+
+	/**
+	 * Start a new PDF with letter size pages
+	 * @param outputStream OutputStream to the output PDF, it is not closed by this writer
+	 * @throws IOException if the PDF cannot be written
+	 */
+	public StreamingPdfWriter(OutputStream outputStream) throws IOException {
+		this(outputStream, PDRectangle.LETTER);
+	}
+
+	/**
+	 * Start a new PDF
+	 * @param outputStream OutputStream to the output PDF, it is not closed by this writer
+	 * @param pageSize Size of every page
+	 * @throws IOException if the PDF cannot be written
+	 */
+	public StreamingPdfWriter(OutputStream outputStream, PDRectangle pageSize) throws IOException {
+		this.out = new CountingOutputStream(new BufferedOutputStream(outputStream));
+		this.mediaBox = String.format(Locale.ROOT, "[%s %s %s %s]", number(pageSize.getLowerLeftX()), number(pageSize.getLowerLeftY()),
+				number(pageSize.getUpperRightX()), number(pageSize.getUpperRightY()));
+		this.xrefFile = File.createTempFile("pdfutil-xref", ".tmp");
+		Writer xrefWriter = null;
+		Writer kidsWriter = null;
+		File kidsTmp = null;
+		try {
+			kidsTmp = File.createTempFile("pdfutil-kids", ".tmp");
+			xrefWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(xrefFile), StandardCharsets.US_ASCII));
+			kidsWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(kidsTmp), StandardCharsets.US_ASCII));
+
+			out.write(new byte[] {'%', 'P', 'D', 'F', '-', '1', '.', '4', '\n', '%', (byte) 0xE2, (byte) 0xE3, (byte) 0xCF, (byte) 0xD3, '\n'});
+			long resourcesOffset = out.getCount();
+			write(RESOURCES_OBJ + " 0 obj\n<< /Font << /F1 " + FONT_OBJ + " 0 R >> >>\nendobj\n");
+			long fontOffset = out.getCount();
+			write(FONT_OBJ + " 0 obj\n<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica /Encoding /WinAnsiEncoding >>\nendobj\n");
+			xrefWriter.write(entry(resourcesOffset));
+			xrefWriter.write(entry(fontOffset));
+		} catch (IOException | RuntimeException e) {
+			closeQuietly(xrefWriter);
+			closeQuietly(kidsWriter);
+			Files.deleteIfExists(xrefFile.toPath());
+			if (kidsTmp != null) {
+				Files.deleteIfExists(kidsTmp.toPath());
+			}
+			throw e;
+		}
+		this.kidsFile = kidsTmp;
+		this.xref = xrefWriter;
+		this.kids = kidsWriter;
+	}
+
+	/**
+	 * Append a blank page
+	 * @throws IOException if the PDF cannot be written
+	 */
+	public void addPage() throws IOException {
+		addPage(null);
+	}
+
+	/**
+	 * Append a page, the content is produced and written immediately
+	 * @param content Producer of the page content, null for a blank page
+	 * @throws IOException if the PDF cannot be written
+	 */
+	public void addPage(PageContent content) throws IOException {
+		if (closed) {
+			throw new IOException("PDF writer is closed");
+		}
+		if (failed) {
+			throw new IOException("PDF writer is aborted");
+		}
+		try {
+			String contentsRef = "";
+			if (content != null) {
+				contentBuffer.reset();
+				deflateBuffer.reset();
+				content.write(pageCount, contentBuffer);
+				try (DeflaterOutputStream deflater = new DeflaterOutputStream(deflateBuffer)) {
+					contentBuffer.writeTo(deflater);
+				}
+				int contentObj = nextObj++;
+				xref.write(entry(out.getCount()));
+				write(contentObj + " 0 obj\n<< /Length " + deflateBuffer.size() + " /Filter /FlateDecode >>\nstream\n");
+				deflateBuffer.writeTo(out);
+				write("\nendstream\nendobj\n");
+				contentsRef = " /Contents " + contentObj + " 0 R";
+			}
+			int pageObj = nextObj++;
+			xref.write(entry(out.getCount()));
+			write(pageObj + " 0 obj\n<< /Type /Page /Parent " + PAGES_OBJ + " 0 R /MediaBox " + mediaBox
+					+ " /Resources " + RESOURCES_OBJ + " 0 R" + contentsRef + " >>\nendobj\n");
+			kids.write(pageObj + " 0 R\n");
+			pageCount++;
+		} catch (IOException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+	}
+
+	/**
+	 * Mark the PDF as incomplete, {@link #close()} then only releases the scratch files and writes no trailer
+	 */
+	public void abort() {
+		failed = true;
+	}
+
+	/**
+	 * @return true if a page failed to be added or the writer was aborted
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return Number of pages written so far
+	 */
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * Write the page tree, cross reference table and trailer. A PDF must contain at least one page, so a blank page is
+	 * added if none has been written. Nothing is written if the writer has failed. The underlying OutputStream is
+	 * flushed but not closed.
+	 * @throws IOException if the PDF cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			if (failed) {
+				log.debug("Streamed PDF aborted: pages={}, bytes={}", pageCount, out.getCount());
+				return;
+			}
+			if (pageCount == 0) {
+				addPage();
+			}
+			closed = true;
+			xref.close();
+			kids.close();
+
+			long pagesOffset = out.getCount();
+			write(PAGES_OBJ + " 0 obj\n<< /Type /Pages /Count " + pageCount + " /Kids [\n");
+			Files.copy(kidsFile.toPath(), out);
+			write("] >>\nendobj\n");
+			long catalogOffset = out.getCount();
+			write(CATALOG_OBJ + " 0 obj\n<< /Type /Catalog /Pages " + PAGES_OBJ + " 0 R >>\nendobj\n");
+
+			long xrefOffset = out.getCount();
+			write("xref\n0 " + nextObj + "\n");
+			write("0000000000 65535 f \n");
+			write(entry(catalogOffset));
+			write(entry(pagesOffset));
+			Files.copy(xrefFile.toPath(), out);
+			write("trailer\n<< /Size " + nextObj + " /Root " + CATALOG_OBJ + " 0 R >>\nstartxref\n" + xrefOffset + "\n%%EOF\n");
+			out.flush();
+			log.debug("Streamed PDF: pages={}, bytes={}", pageCount, out.getCount());
+		} finally {
+			closed = true;
+			xref.close();
+			kids.close();
+			Files.deleteIfExists(xrefFile.toPath());
+			Files.deleteIfExists(kidsFile.toPath());
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable == null) {
+			return;
+		}
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			log.warn("Closing scratch file failed", e);
+		}
+	}
+
+	private void write(String str) throws IOException {
+		out.write(str.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private static String entry(long offset) {
+		return String.format(Locale.ROOT, "%010d 00000 n \n", offset);
+	}
+
+	private static String number(float value) {
+		return value == (int) value ? Integer.toString((int) value) : Float.toString(value);
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package com.smc.pdfutil.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Two-tier byte store behind {@link CaptureCache} and {@link ResultCache}: an LRU memory tier and an optional disk tier
+ * of {@code <sha256(key)><suffix>} files, each bounded by total size. Entries expire after the time to live, counted
+ * from when they were put; on disk that is the last modified time of the file, and an entry promoted from disk to
+ * memory keeps the expiry of its file.
+ */
+class TieredStore {
+	private static final Logger log = LoggerFactory.getLogger(TieredStore.class);
+
+	/**
+	 * Time to live of entries that never expire
+	 */
+	static final long NO_TTL = Long.MAX_VALUE;
+
+	private static class Entry {
+		private final byte[] data;
+		private final long expiresAt;
+
+		Entry(byte[] data, long expiresAt) {
+			this.data = data;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final String name;
+	private final long maxMemoryBytes;
+	private final File diskDir;
+	private final String diskSuffix;
+	private final long maxDiskBytes;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+	private long memoryBytes = 0;
+	private long diskBytes = 0;
+
+	/**
+	 * Create a memory only store
+	 * @param maxMemoryBytes Maximum total size (byte) of entries kept in memory
+	 * @param ttlMillis Time (ms) an entry stays valid after it is put, {@link #NO_TTL} to keep entries until evicted
+	 */
+	TieredStore(long maxMemoryBytes, long ttlMillis) {
+		this.name = "memory";
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.diskDir = null;
+		this.diskSuffix = null;
+		this.maxDiskBytes = 0;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Create a store with both memory and disk tier
+	 * @param name Name of the store, used as prefix of temporary files and in log messages
+	 * @param maxMemoryBytes Maximum total size (byte) of entries kept in memory
+	 * @param diskDir Directory to persist the entries, null to disable the disk tier
+	 * @param diskSuffix File name suffix of the entries on disk
+	 * @param maxDiskBytes Maximum total size (byte) of entries kept on disk
+	 * @param ttlMillis Time (ms) an entry stays valid after it is put, {@link #NO_TTL} to keep entries until evicted
+	 * @throws IOException if the directory cannot be created
+	 */
+	TieredStore(String name, long maxMemoryBytes, File diskDir, String diskSuffix, long maxDiskBytes, long ttlMillis) throws IOException {
+		this.name = name;
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.diskDir = diskDir;
+		this.diskSuffix = diskSuffix;
+		this.maxDiskBytes = maxDiskBytes;
+		this.ttlMillis = ttlMillis;
+		if (diskDir != null) {
+			if (!diskDir.isDirectory() && !diskDir.mkdirs()) {
+				throw new IOException("Cannot create cache directory: " + diskDir);
+			}
+			for (File file : diskFiles()) {
+				diskBytes += file.length();
+			}
+		}
+	}
+
+	/**
+	 * Key part for a password, so that an entry of an encrypted PDF is only served to callers that supply the same
+	 * password
+	 * @param pwd Password to decrypt the PDF, may be null
+	 * @return SHA-256 of the password, "-" for no password
+	 */
+	static String passwordKey(String pwd) {
+		return pwd == null ? "-" : Hashes.sha256(pwd);
+	}
+
+	/**
+	 * @param key Key of the entry
+	 * @return The entry from the memory tier, null if absent or expired
+	 */
+	synchronized byte[] getMemory(String key) {
+		Entry entry = memory.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expiresAt <= System.currentTimeMillis()) {
+			memory.remove(key);
+			memoryBytes -= entry.data.length;
+			return null;
+		}
+		return entry.data;
+	}
+
+	/**
+	 * Read the entry from the disk tier and promote it to the memory tier with the expiry of its file
+	 * @param key Key of the entry
+	 * @return The entry from the disk tier, null if absent, expired or unreadable
+	 */
+	byte[] getDisk(String key) {
+		if (diskDir == null) {
+			return null;
+		}
+		File file = diskFile(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		long expiresAt = expiry(file.lastModified());
+		if (expiresAt <= System.currentTimeMillis()) {
+			deleteDisk(file);
+			return null;
+		}
+		byte[] data;
+		try {
+			data = Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			log.warn("Reading {} cache file failed: {}", name, file, e);
+			return null;
+		}
+		putMemory(key, data, expiresAt);
+		return data;
+	}
+
+	/**
+	 * Put the entry into both tiers, entries larger than a tier are not kept in that tier
+	 * @param key Key of the entry
+	 * @param data The entry
+	 */
+	void put(String key, byte[] data) {
+		putMemory(key, data, expiry(System.currentTimeMillis()));
+		putDisk(key, data);
+	}
+
+	/**
+	 * Remove all entries from the memory tier
+	 */
+	synchronized void clearMemory() {
+		memory.clear();
+		memoryBytes = 0;
+	}
+
+	/**
+	 * @return Total size (byte) of entries kept in memory
+	 */
+	synchronized long getMemoryBytes() {
+		return memoryBytes;
+	}
+
+	/**
+	 * @return Total size (byte) of entries kept on disk
+	 */
+	synchronized long getDiskBytes() {
+		return diskBytes;
+	}
+
+	private long expiry(long from) {
+		return from > Long.MAX_VALUE - ttlMillis ? Long.MAX_VALUE : from + ttlMillis;
+	}
+
+	private synchronized void putMemory(String key, byte[] data, long expiresAt) {
+		long now = System.currentTimeMillis();
+		if (data.length > maxMemoryBytes || expiresAt <= now) {
+			return;
+		}
+		Entry old = memory.put(key, new Entry(data, expiresAt));
+		memoryBytes += data.length - (old == null ? 0 : old.data.length);
+		for (Iterator<Map.Entry<String, Entry>> i = memory.entrySet().iterator(); i.hasNext();) {
+			Entry entry = i.next().getValue();
+			if (memoryBytes > maxMemoryBytes || entry.expiresAt <= now) {
+				memoryBytes -= entry.data.length;
+				i.remove();
+			}
+		}
+	}
+
+	private File diskFile(String key) {
+		return new File(diskDir, Hashes.sha256(key) + diskSuffix);
+	}
+
+	private File[] diskFiles() {
+		File[] files = diskDir.listFiles((dir, fileName) -> fileName.endsWith(diskSuffix));
+		return files == null ? new File[0] : files;
+	}
+
+	private void putDisk(String key, byte[] data) {
+		if (diskDir == null || data.length > maxDiskBytes) {
+			return;
+		}
+		File file = diskFile(key);
+		try {
+			File tmp = File.createTempFile(name, ".tmp", diskDir);
+			try {
+				Files.write(tmp.toPath(), data);
+				replaceDisk(tmp, file);
+			} finally {
+				Files.deleteIfExists(tmp.toPath());
+			}
+		} catch (IOException e) {
+			log.warn("Writing {} cache file failed: {}", name, file, e);
+		}
+	}
+
+	/**
+	 * Move the written entry into place and account for the replaced file under the same lock, so that concurrent
+	 * writes of one key cannot corrupt the byte count. Then delete expired and the oldest entries, except the one just
+	 * written, until the disk tier is within its bound.
+	 */
+	private synchronized void replaceDisk(File tmp, File file) throws IOException {
+		long oldLength = file.length();
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		diskBytes += file.length() - oldLength;
+		if (diskBytes <= maxDiskBytes) {
+			return;
+		}
+		File[] files = diskFiles();
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		long now = System.currentTimeMillis();
+		for (File old : files) {
+			if (diskBytes <= maxDiskBytes && expiry(old.lastModified()) > now) {
+				break;
+			}
+			if (!old.equals(file)) {
+				deleteDisk(old);
+			}
+		}
+	}
+
+	private synchronized void deleteDisk(File file) {
+		long length = file.length();
+		if (file.delete()) {
+			diskBytes -= length;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.FontMappers;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+
+/**
+ * Run the one-off work of the first PDF operation up front: the system font scan of PDFBox, ImageIO plugin discovery,
+ * and class loading of the load, extract, render and save paths.
+ * <p>
+ * The font scan result is persisted by PDFBox into the font cache directory, so later JVMs skip the scan. To build an
+ * AppCDS archive, run this class with {@code -XX:DumpLoadedClassList=pdfutil.classlist}, then pass the class list to
+ * {@code -Xshare:dump -XX:SharedClassListFile=pdfutil.classlist -XX:SharedArchiveFile=pdfutil.jsa}.
+ */
+public class WarmUpService {
+	private static final Logger log = LoggerFactory.getLogger(WarmUpService.class);
+
+	public static final String FONT_CACHE_PROPERTY = "pdfbox.fontcache";
+
+	/**
+	 * Name of the font cache file PDFBox writes into the font cache directory
+	 */
+	public static final String FONT_CACHE_FILE = ".pdfbox.cache";
+
+	private static final float IMG_DPI = 96f;
+
+	private static volatile long lastWarmUpMillis = -1;
+
+	/**
+	 * Warm up with the default font cache location of PDFBox (user home)
+	 * @return Time (ms) spent on warming up
+	 * @throws IOException if the sample PDF cannot be processed
+	 */
+	public static long warmUp() throws IOException {
+		return warmUp(null);
+	}
+
+	/**
+	 * Warm up and persist the font cache into the given directory. The directory only takes effect if no font has been
+	 * looked up in this JVM yet, a warning is logged if the font cache file was not written there.
+	 * @param fontCacheDir Directory of the font cache, null for the default location
+	 * @return Time (ms) spent on warming up
+	 * @throws IOException if the sample PDF cannot be processed
+	 */
+	public static long warmUp(File fontCacheDir) throws IOException {
+		log.info("Warming up");
+		log.debug("Params: fontCacheDir={}", fontCacheDir);
+		long start = System.currentTimeMillis();
+		try {
+			if (fontCacheDir != null) {
+				if (!fontCacheDir.isDirectory() && !fontCacheDir.mkdirs()) {
+					throw new IOException("Cannot create font cache directory: " + fontCacheDir);
+				}
+				System.setProperty(FONT_CACHE_PROPERTY, fontCacheDir.getAbsolutePath());
+			}
+
+			ImageIO.scanForPlugins();
+			ImageIO.getImageWritersByFormatName("png").next();
+			ImageIO.getImageReadersByFormatName("png").next();
+			ImageIO.getImageReadersByFormatName("jpeg").next();
+
+			FontMappers.instance().getFontBoxFont("Helvetica", null);
+
+			byte[] sample = createSample();
+			PdfService.read(new ByteArrayInputStream(sample));
+			PdfService.capture(new ByteArrayInputStream(sample), 0, 1, 1, 2, 1, IMG_DPI, new ByteArrayOutputStream());
+			PdfService.split(new ByteArrayInputStream(sample), new int[] {0}, new ByteArrayOutputStream());
+		} catch (IOException e) {
+			log.error("Warming up Exception: ", e);
+			throw(e);
+		}
+		if (fontCacheDir != null && !new File(fontCacheDir, FONT_CACHE_FILE).isFile()) {
+			log.warn("Font cache was not written to {}, fonts were already initialized in this JVM", fontCacheDir);
+		}
+		lastWarmUpMillis = System.currentTimeMillis() - start;
+		log.info("Warmed up in {} ms", lastWarmUpMillis);
+		return lastWarmUpMillis;
+	}
+
+	/**
+	 * @return Time (ms) spent on the last warm up, -1 if never warmed up
+	 */
+	public static long getLastWarmUpMillis() {
+		return lastWarmUpMillis;
+	}
+
+	/**
+	 * Warm up from the command line, e.g. to record the class list of an AppCDS archive.
+	 * @param args Optional font cache directory
+	 * @throws IOException if the sample PDF cannot be processed
+	 */
+	public static void main(String[] args) throws IOException {
+		long millis = warmUp(args.length > 0 ? new File(args[0]) : null);
+		System.out.println("Warm up time (ms): " + millis);
+	}
+
+	private static byte[] createSample() throws IOException {
+		try (PDDocument doc = new PDDocument()) {
+			PDPage page = new PDPage();
+			doc.addPage(page);
+			BufferedImage nativeImg = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = nativeImg.createGraphics();
+			g.setColor(Color.RED);
+			g.fillRect(0, 0, 8, 8);
+			g.dispose();
+			PDImageXObject img = LosslessFactory.createFromImage(doc, nativeImg);
+			try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+				content.beginText();
+				content.setFont(PDType1Font.HELVETICA, 12);
+				content.newLineAtOffset(72, 720);
+				content.showText("Warm up");
+				content.endText();
+				content.drawImage(img, 72, 600, 16, 16);
+			}
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			doc.save(outputStream);
+			return outputStream.toByteArray();
+		}
+	}
+}
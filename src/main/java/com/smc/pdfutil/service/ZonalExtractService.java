@@ -0,0 +1,150 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripperByArea;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Stream;
+
+/**
+ * Extract the text of the named regions of a {@link ZoneTemplate} from templated documents, e.g. invoice numbers and
+ * totals. Only the pages listed in the template are processed, and text outside the regions is dropped as soon as it is
+ * positioned instead of being sorted and written out. Streams of documents are processed on a fixed pool of threads,
+ * each document on its own thread.
+ */
+public class ZonalExtractService {
+	private static final Logger log = LoggerFactory.getLogger(ZonalExtractService.class);
+
+	private final Map<Integer, Map<String, Rectangle2D>> pages;
+	private final int parallelism;
+
+	/**
+	 * Extraction of one PDF, keeps its InputStream so it can be closed if the task never runs
+	 */
+	private class ExtractTask extends FutureTask<Map<String, String>> {
+		private final InputStream inputStream;
+
+		ExtractTask(Map.Entry<InputStream, String> source) {
+			super(() -> {
+				try (InputStream is = source.getKey();
+					 PDDocument doc = PDDocument.load(is, source.getValue())) {
+					return extract(doc);
+				}
+			});
+			this.inputStream = source.getKey();
+		}
+	}
+
+	/**
+	 * @param template Regions to extract, later changes to the template do not apply to this service
+	 * @param parallelism Number of worker threads
+	 */
+	public ZonalExtractService(ZoneTemplate template, int parallelism) {
+		this.pages = template.getPages();
+		this.parallelism = Math.max(parallelism, 1);
+	}
+
+	/**
+	 * Extract the regions from the PDF
+	 * @param inputStream InputStream to the PDF
+	 * @param pwd Password to decrypt the PDF
+	 * @return Text of each region keyed by region name, empty if the page does not exist
+	 * @throws IOException if the PDF is not valid
+	 */
+	public Map<String, String> extract(InputStream inputStream, String pwd) throws IOException {
+		log.info("Extracting zones from PDF");
+		try (PDDocument doc = PDDocument.load(inputStream, pwd)) {
+			return extract(doc);
+		} catch (IOException e) {
+			log.error("Extracting zones from PDF Exception: ", e);
+			throw(e);
+		}
+	}
+
+	/**
+	 * Extract the regions from each PDF in parallel
+	 * @param inputStream Map of InputStream to the PDF and corresponding password (if any)
+	 * @return Text of each region keyed by region name, for each PDF in stream order
+	 * @throws IOException if a PDF is not valid
+	 */
+	public List<Map<String, String>> extract(Stream<Map.Entry<InputStream, String>> inputStream) throws IOException {
+		log.info("Extracting zones from PDFs");
+		log.debug("Params: parallelism={}, pages={}", parallelism, pages.keySet());
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		Deque<Future<Map<String, String>>> window = new ArrayDeque<>();
+		List<Map<String, String>> results = new ArrayList<>();
+		try {
+			for (Iterator<Map.Entry<InputStream, String>> i = inputStream.iterator(); i.hasNext();) {
+				ExtractTask task = new ExtractTask(i.next());
+				pool.execute(task);
+				window.add(task);
+				if (window.size() >= parallelism * 2) {
+					results.add(complete(window.poll()));
+				}
+			}
+			while (!window.isEmpty()) {
+				results.add(complete(window.poll()));
+			}
+		} catch (IOException e) {
+			log.error("Extracting zones from PDFs Exception: ", e);
+			throw(e);
+		} finally {
+			for (Runnable task : pool.shutdownNow()) {
+				try {
+					((ExtractTask) task).inputStream.close();
+				} catch (IOException e) {
+					log.warn("Closing unprocessed PDF failed", e);
+				}
+			}
+		}
+		log.debug("Extracted zones: docs={}", results.size());
+		return results;
+	}
+
+	private Map<String, String> extract(PDDocument doc) throws IOException {
+		Map<String, String> fields = new LinkedHashMap<>();
+		for (Map.Entry<Integer, Map<String, Rectangle2D>> page : pages.entrySet()) {
+			if (page.getKey() >= doc.getNumberOfPages()) {
+				for (String name : page.getValue().keySet()) {
+					fields.put(name, "");
+				}
+				continue;
+			}
+			PDFTextStripperByArea stripper = new PDFTextStripperByArea();
+			stripper.setSortByPosition(true);
+			for (Map.Entry<String, Rectangle2D> zone : page.getValue().entrySet()) {
+				stripper.addRegion(zone.getKey(), zone.getValue());
+			}
+			stripper.extractRegions(doc.getPage(page.getKey()));
+			for (String name : page.getValue().keySet()) {
+				fields.put(name, stripper.getTextForRegion(name).trim());
+			}
+		}
+		return fields;
+	}
+
+	private static Map<String, String> complete(Future<Map<String, String>> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Extracting zones interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+}
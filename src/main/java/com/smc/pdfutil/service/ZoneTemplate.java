@@ -0,0 +1,51 @@
+package com.smc.pdfutil.service;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Named text regions of a document template, e.g. the invoice number and total of an invoice layout. Regions are given
+ * in inch from the upper-left corner, as in {@link PdfService#capture}, and are converted once into rectangles in point
+ * with the origin at the upper-left corner and y growing downwards, the display coordinates expected by
+ * {@link ZonalExtractService}, so one template can be reused for any number of documents.
+ */
+public class ZoneTemplate {
+	private static final float DEF_DPI = 72f;
+
+	private final TreeMap<Integer, Map<String, Rectangle2D>> pages = new TreeMap<>();
+
+	/**
+	 * Add a named region
+	 * @param name Name of the field extracted from the region, unique within the template
+	 * @param pageIdx Index of the page of the region
+	 * @param x X coordinate (inch) of the region, starting from upper-left corner
+	 * @param y Y coordinate (inch) of the region, starting from upper-left corner
+	 * @param width Width (inch) of the region
+	 * @param height Height (inch) of the region
+	 * @return This template
+	 */
+	public synchronized ZoneTemplate addZone(String name, int pageIdx, float x, float y, float width, float height) {
+		for (Map<String, Rectangle2D> zones : pages.values()) {
+			if (zones.containsKey(name)) {
+				throw new IllegalArgumentException("Duplicate zone: " + name);
+			}
+		}
+		pages.computeIfAbsent(pageIdx, k -> new LinkedHashMap<>())
+				.put(name, new Rectangle2D.Float(x * DEF_DPI, y * DEF_DPI, width * DEF_DPI, height * DEF_DPI));
+		return this;
+	}
+
+	/**
+	 * @return Regions (in point, from the upper-left corner) of each listed page, ordered by page index
+	 */
+	synchronized Map<Integer, Map<String, Rectangle2D>> getPages() {
+		Map<Integer, Map<String, Rectangle2D>> copy = new TreeMap<>();
+		for (Map.Entry<Integer, Map<String, Rectangle2D>> entry : pages.entrySet()) {
+			copy.put(entry.getKey(), Collections.unmodifiableMap(new LinkedHashMap<>(entry.getValue())));
+		}
+		return Collections.unmodifiableMap(copy);
+	}
+}
@@ -0,0 +1,156 @@
+package com.smc.pdfutil.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BatchServiceTest {
+	private static final String BASE_PATH = System.getProperty("user.dir") + File.separator + "data" + File.separator;
+	private static final File PDF1 = new File(BASE_PATH + "PDF_1.pdf");
+	private static final File PDF2 = new File(BASE_PATH + "PDF_2.pdf");
+	private static final File EN_PDF1 = new File(BASE_PATH + "encrypted_PDF_1.pdf");
+
+	private File outputDir;
+
+	@Before
+	public void setUp() throws IOException {
+		outputDir = Files.createTempDirectory("batch").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = outputDir.listFiles();
+		if (null != files) {
+			for (File f : files) {
+				assertTrue(f.delete());
+			}
+		}
+		assertTrue(outputDir.delete());
+	}
+
+	@Test
+	public void testReadAndResume() {
+		try {
+			BatchSpec spec = new BatchSpec(BatchSpec.Operation.READ);
+			spec.setPageRangeSize(1);
+			List<File> inputFiles = Arrays.asList(PDF1, PDF2, EN_PDF1);
+
+			Map<File, String> statuses = BatchService.run(inputFiles, spec, outputDir);
+			assertEquals(BatchService.STATUS_OK, statuses.get(PDF1));
+			assertEquals(BatchService.STATUS_OK, statuses.get(PDF2));
+			assertEquals(BatchService.STATUS_FAILED, statuses.get(EN_PDF1));
+			try (FileInputStream inputStream = new FileInputStream(PDF1)) {
+				byte[] text = Files.readAllBytes(new File(outputDir, "PDF_1.txt").toPath());
+				assertEquals(PdfService.read(inputStream), new String(text, StandardCharsets.UTF_8));
+			}
+
+			statuses = BatchService.run(inputFiles, spec, outputDir);
+			assertEquals(BatchService.STATUS_SKIPPED, statuses.get(PDF1));
+			assertEquals(BatchService.STATUS_SKIPPED, statuses.get(PDF2));
+			assertEquals(BatchService.STATUS_FAILED, statuses.get(EN_PDF1));
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testResumeChangedFile() {
+		File inputDir = null;
+		File input = null;
+		try {
+			inputDir = Files.createTempDirectory("batch_input").toFile();
+			input = new File(inputDir, "PDF_1.pdf");
+			Files.copy(PDF1.toPath(), input.toPath());
+			assertTrue(input.setLastModified(1000000000000L));
+			BatchSpec spec = new BatchSpec(BatchSpec.Operation.READ);
+			List<File> inputFiles = Collections.singletonList(input);
+
+			assertEquals(BatchService.STATUS_OK, BatchService.run(inputFiles, spec, outputDir).get(input));
+			assertEquals(BatchService.STATUS_SKIPPED, BatchService.run(inputFiles, spec, outputDir).get(input));
+			assertTrue(input.setLastModified(2000000000000L));
+			assertEquals(BatchService.STATUS_OK, BatchService.run(inputFiles, spec, outputDir).get(input));
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		} finally {
+			if (input != null) {
+				assertTrue(input.delete());
+			}
+			if (inputDir != null) {
+				assertTrue(inputDir.delete());
+			}
+		}
+	}
+
+	@Test
+	public void testDuplicateNames() {
+		File inputDir = null;
+		File input = null;
+		try {
+			inputDir = Files.createTempDirectory("batch_input").toFile();
+			input = new File(inputDir, "pdf_1.PDF");
+			Files.copy(PDF1.toPath(), input.toPath());
+			BatchService.run(Arrays.asList(PDF1, input), new BatchSpec(BatchSpec.Operation.READ), outputDir);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertFalse(new File(outputDir, BatchService.REPORT_NAME).exists());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		} finally {
+			if (input != null) {
+				assertTrue(input.delete());
+			}
+			if (inputDir != null) {
+				assertTrue(inputDir.delete());
+			}
+		}
+	}
+
+	@Test
+	public void testCapture() {
+		try {
+			BatchSpec spec = new BatchSpec(BatchSpec.Operation.CAPTURE);
+			spec.setDpi(50f);
+			spec.setPageRangeSize(1);
+			spec.setParallelism(2);
+			Map<File, String> statuses = BatchService.run(Arrays.asList(PDF1, PDF2), spec, outputDir);
+			assertEquals(BatchService.STATUS_OK, statuses.get(PDF1));
+			assertTrue(new File(outputDir, "PDF_1-0.png").isFile());
+			assertTrue(new File(outputDir, "PDF_1-1.png").isFile());
+			assertTrue(new File(outputDir, "PDF_2-1.png").isFile());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testEncrypt() {
+		try {
+			BatchSpec spec = new BatchSpec(BatchSpec.Operation.ENCRYPT);
+			spec.setEncryption("OWNER_PWD", "USER_PWD");
+			Map<File, String> statuses = BatchService.run(Arrays.asList(PDF1, PDF2), spec, outputDir);
+			assertEquals(BatchService.STATUS_OK, statuses.get(PDF2));
+			try (FileInputStream resultStream = new FileInputStream(new File(outputDir, "PDF_2.encrypt.pdf"))) {
+				assertTrue(PdfService.read(resultStream, "USER_PWD").contains("PDF 2 Page 1 Line 1"));
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+}
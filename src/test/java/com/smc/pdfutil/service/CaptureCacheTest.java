@@ -0,0 +1,172 @@
+package com.smc.pdfutil.service;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class CaptureCacheTest {
+	private static final String BASE_PATH = System.getProperty("user.dir") + File.separator + "data" + File.separator;
+	private static final String PDF1_PATH = BASE_PATH + "PDF_1.pdf";
+	private static final String EN_PDF1_PATH = BASE_PATH + "encrypted_PDF_1.pdf";
+	private static final String USER_PWD = "USER_PWD";
+
+	private static File cacheDir;
+
+	@BeforeClass
+	public static void setUp() throws IOException {
+		cacheDir = Files.createTempDirectory("capture_cache").toFile();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		File[] files = cacheDir.listFiles();
+		if (null != files) {
+			for (File f : files) {
+				assertTrue(f.delete());
+			}
+		}
+		assertTrue(cacheDir.delete());
+	}
+
+	@Test
+	public void testCaptureHit() {
+		try {
+			CaptureCache cache = new CaptureCache(16 * 1024 * 1024);
+			ByteArrayOutputStream first = new ByteArrayOutputStream();
+			ByteArrayOutputStream second = new ByteArrayOutputStream();
+			try (FileInputStream inputStream = new FileInputStream(PDF1_PATH)) {
+				cache.capture(inputStream, 0, 1, 2, 3, 4, 100f, first);
+			}
+			try (FileInputStream inputStream = new FileInputStream(PDF1_PATH)) {
+				cache.capture(inputStream, null, 0, 1, 2, 3, 4, 100f, second);
+			}
+			assertArrayEquals(first.toByteArray(), second.toByteArray());
+			assertEquals(1, cache.getMissCount());
+			assertEquals(1, cache.getHitCount());
+
+			try (FileInputStream inputStream = new FileInputStream(PDF1_PATH)) {
+				cache.capture(inputStream, 0, 100f, new ByteArrayOutputStream());
+			}
+			assertEquals(2, cache.getMissCount());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCaptureEviction() {
+		try {
+			CaptureCache cache = new CaptureCache(1);
+			for (int i = 0; i < 2; i++) {
+				try (FileInputStream inputStream = new FileInputStream(PDF1_PATH)) {
+					cache.capture(inputStream, 1, 50f, new ByteArrayOutputStream());
+				}
+			}
+			assertEquals(2, cache.getMissCount());
+			assertEquals(0, cache.getMemoryBytes());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCaptureDiskHit() {
+		try {
+			ByteArrayOutputStream first = new ByteArrayOutputStream();
+			ByteArrayOutputStream second = new ByteArrayOutputStream();
+			try (FileInputStream inputStream = new FileInputStream(PDF1_PATH)) {
+				new CaptureCache(16 * 1024 * 1024, cacheDir).capture(inputStream, 0, 50f, first);
+			}
+			CaptureCache cache = new CaptureCache(16 * 1024 * 1024, cacheDir);
+			try (FileInputStream inputStream = new FileInputStream(PDF1_PATH)) {
+				cache.capture(inputStream, 0, 50f, second);
+			}
+			assertArrayEquals(first.toByteArray(), second.toByteArray());
+			assertEquals(1, cache.getDiskHitCount());
+			assertEquals(0, cache.getMissCount());
+			assertEquals(1.0, cache.getHitRatio(), 0.0);
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCaptureDiskEviction() {
+		File diskDir = null;
+		try {
+			diskDir = Files.createTempDirectory("capture_cache_bound").toFile();
+			ByteArrayOutputStream page0 = new ByteArrayOutputStream();
+			ByteArrayOutputStream page1 = new ByteArrayOutputStream();
+			PdfService.capture(new FileInputStream(PDF1_PATH), 0, 50f, page0);
+			PdfService.capture(new FileInputStream(PDF1_PATH), 1, 50f, page1);
+			long maxDiskBytes = Math.max(page0.size(), page1.size());
+
+			CaptureCache cache = new CaptureCache(0, diskDir, maxDiskBytes);
+			for (int pageIdx = 0; pageIdx < 2; pageIdx++) {
+				try (FileInputStream inputStream = new FileInputStream(PDF1_PATH)) {
+					cache.capture(inputStream, pageIdx, 50f, new ByteArrayOutputStream());
+				}
+			}
+			File[] files = diskDir.listFiles();
+			assertNotNull(files);
+			assertEquals(1, files.length);
+			assertEquals(page1.size(), files[0].length());
+
+			CaptureCache restarted = new CaptureCache(0, diskDir, maxDiskBytes);
+			for (int pageIdx = 1; pageIdx >= 0; pageIdx--) {
+				try (FileInputStream inputStream = new FileInputStream(PDF1_PATH)) {
+					restarted.capture(inputStream, pageIdx, 50f, new ByteArrayOutputStream());
+				}
+			}
+			assertEquals(1, restarted.getDiskHitCount());
+			assertEquals(1, restarted.getMissCount());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		} finally {
+			if (diskDir != null) {
+				File[] files = diskDir.listFiles();
+				if (null != files) {
+					for (File f : files) {
+						assertTrue(f.delete());
+					}
+				}
+				assertTrue(diskDir.delete());
+			}
+		}
+	}
+
+	@Test
+	public void testCaptureKeyedByPassword() {
+		try {
+			CaptureCache cache = new CaptureCache(16 * 1024 * 1024, cacheDir);
+			try (FileInputStream inputStream = new FileInputStream(EN_PDF1_PATH)) {
+				cache.capture(inputStream, USER_PWD, 0, 50f, new ByteArrayOutputStream());
+			}
+			try (FileInputStream inputStream = new FileInputStream(EN_PDF1_PATH)) {
+				cache.capture(inputStream, "WRONG_PWD", 0, 50f, new ByteArrayOutputStream());
+				fail();
+			} catch (IOException e) {
+				assertEquals(2, cache.getMissCount());
+			}
+			try (FileInputStream inputStream = new FileInputStream(EN_PDF1_PATH)) {
+				cache.capture(inputStream, USER_PWD, 0, 50f, new ByteArrayOutputStream());
+			}
+			assertEquals(1, cache.getHitCount());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.smc.pdfutil.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class CompareServiceTest {
+	private static final String PDF1_PATH = "data/PDF_1.pdf";
+	private static final String IMG_PATH = "data/sign.png";
+	private static final float DPI = 36f;
+
+	private byte[] original;
+	private byte[] modified;
+	private int pageNum;
+
+	@Before
+	public void setUp() throws IOException {
+		original = Files.readAllBytes(new File(PDF1_PATH).toPath());
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try (InputStream imgStream = new FileInputStream(IMG_PATH)) {
+			PdfService.draw(new ByteArrayInputStream(original), 0, imgStream, 1, 1, outputStream);
+		}
+		modified = outputStream.toByteArray();
+		try (PdfSession session = new PdfSession(new ByteArrayInputStream(original))) {
+			pageNum = session.getPageCount();
+		}
+	}
+
+	@Test
+	public void testCompareIdentical() {
+		try {
+			CompareService service = new CompareService(4);
+			service.setDpi(DPI);
+			CompareService.Result result = service.compare(new ByteArrayInputStream(original), new ByteArrayInputStream(original));
+			assertTrue(result.isIdentical());
+			assertFalse(result.isStoppedEarly());
+			assertEquals(pageNum, result.getPages().size());
+			for (int i = 0; i < pageNum; i++) {
+				assertEquals(i, result.getPages().get(i).getPageIdx());
+				assertEquals(0, result.getPages().get(i).getScore(), 0);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCompareStopEarly() {
+		try {
+			CompareService service = new CompareService(1);
+			service.setDpi(DPI);
+			CompareService.Result result = service.compare(new ByteArrayInputStream(original), new ByteArrayInputStream(modified));
+			assertFalse(result.isIdentical());
+			assertEquals(1, result.getDiffPageCount());
+			assertEquals(pageNum > 1, result.isStoppedEarly());
+			assertEquals(1, result.getPages().size());
+			assertTrue(result.getPages().get(0).getScore() > 0);
+			assertNull(result.getPages().get(0).getDiffImage());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCompareAllPagesWithDiffImages() {
+		try {
+			CompareService service = new CompareService(4);
+			service.setDpi(DPI);
+			service.setMaxDiffPages(0);
+			service.setDiffImages(true);
+			CompareService.Result result = service.compare(new ByteArrayInputStream(original), new ByteArrayInputStream(modified));
+			assertFalse(result.isStoppedEarly());
+			assertEquals(1, result.getDiffPageCount());
+			assertEquals(pageNum, result.getPages().size());
+			CompareService.PageDiff diff = result.getPages().get(0);
+			assertTrue(diff.getScore() > 0);
+			assertNotNull(diff.getDiffImage());
+			for (int i = 1; i < pageNum; i++) {
+				assertNull(result.getPages().get(i).getDiffImage());
+			}
+
+			service.setThreshold(1);
+			assertTrue(service.compare(new ByteArrayInputStream(original), new ByteArrayInputStream(modified)).isIdentical());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+}
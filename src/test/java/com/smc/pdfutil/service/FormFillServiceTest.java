@@ -0,0 +1,114 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationWidget;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
+import org.apache.pdfbox.pdmodel.interactive.form.PDTextField;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class FormFillServiceTest {
+	private static final String BASE_PATH = System.getProperty("user.dir") + File.separator + "data" + File.separator;
+	private static final String SIGN_FORM_PATH = BASE_PATH + "sign_form.pdf";
+
+	private static byte[] template;
+
+	@BeforeClass
+	public static void setUp() throws IOException {
+		try (PDDocument doc = PDDocument.load(new File(SIGN_FORM_PATH))) {
+			PDPage page = doc.getPage(0);
+			PDAcroForm form = new PDAcroForm(doc);
+			doc.getDocumentCatalog().setAcroForm(form);
+			PDResources resources = new PDResources();
+			resources.put(COSName.getPDFName("Helv"), PDType1Font.HELVETICA);
+			form.setDefaultResources(resources);
+			form.setDefaultAppearance("/Helv 0 Tf 0 g");
+
+			PDTextField field = new PDTextField(form);
+			field.setPartialName("name");
+			PDAnnotationWidget widget = field.getWidgets().get(0);
+			widget.setRectangle(new PDRectangle(50, 700, 200, 50));
+			widget.setPage(page);
+			page.getAnnotations().add(widget);
+			form.getFields().add(field);
+
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			doc.save(outputStream);
+			template = outputStream.toByteArray();
+		}
+	}
+
+	@Test
+	public void testFillPerRecord() {
+		Map<Integer, ByteArrayOutputStream> outputs = new ConcurrentHashMap<>();
+		try {
+			FormFillService service = new FormFillService(new ByteArrayInputStream(template), null, 3);
+			int count = service.fill(IntStream.range(0, 10).mapToObj(i -> Collections.singletonMap("name", "Customer " + i)), recordIdx -> {
+				ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+				outputs.put(recordIdx, outputStream);
+				return outputStream;
+			});
+			assertEquals(10, count);
+			assertEquals(10, outputs.size());
+			try (PDDocument doc = PDDocument.load(outputs.get(7).toByteArray())) {
+				assertEquals("Customer 7", doc.getDocumentCatalog().getAcroForm().getField("name").getValueAsString());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testFillMergedFlatten() {
+		try (FileInputStream imgStream = new FileInputStream(BASE_PATH + "sign.png")) {
+			FormFillService service = new FormFillService(new ByteArrayInputStream(template), null, 2);
+			service.setFlatten(true);
+			service.setSignature(imgStream, 0, 2f, 3f, 2f, 1f);
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			int count = service.fill(IntStream.range(0, 5).mapToObj(i -> Collections.singletonMap("name", "Customer " + i)), outputStream);
+			assertEquals(5, count);
+
+			String text = PdfService.read(new ByteArrayInputStream(outputStream.toByteArray()));
+			assertTrue(text.indexOf("Customer 0") < text.indexOf("Customer 4"));
+			try (PDDocument doc = PDDocument.load(outputStream.toByteArray())) {
+				assertEquals(5, doc.getNumberOfPages());
+				COSDictionary firstFonts = doc.getPage(0).getResources().getCOSObject().getCOSDictionary(COSName.FONT);
+				COSDictionary lastFonts = doc.getPage(4).getResources().getCOSObject().getCOSDictionary(COSName.FONT);
+				assertFalse(firstFonts.keySet().isEmpty());
+				for (COSName name : firstFonts.keySet()) {
+					assertSame(firstFonts.getDictionaryObject(name), lastFonts.getDictionaryObject(name));
+				}
+			}
+			assertTrue(outputStream.size() < 2 * new File(SIGN_FORM_PATH).length());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testUnknownField() {
+		try {
+			FormFillService service = new FormFillService(new ByteArrayInputStream(template), null, 1);
+			service.fill(Collections.singletonList(Collections.singletonMap("missing", "value")).stream(), new ByteArrayOutputStream());
+			fail();
+		} catch (IOException e) {
+			assertEquals("Unknown form field: missing", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageXYZDestination;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IncrementalServiceTest {
+	private static final String PDF1_PATH = "data/PDF_1.pdf";
+	private static final String IMG_PATH = "data/sign.png";
+	private static final String DOC_NAME = "uploads/PDF_1.pdf";
+
+	private byte[] original;
+	private byte[] modified;
+	private int pageNum;
+
+	@Before
+	public void setUp() throws IOException {
+		original = Files.readAllBytes(new File(PDF1_PATH).toPath());
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try (InputStream imgStream = new FileInputStream(IMG_PATH)) {
+			PdfService.draw(new ByteArrayInputStream(original), 0, imgStream, 1, 1, outputStream);
+		}
+		modified = outputStream.toByteArray();
+		try (PdfSession session = new PdfSession(new ByteArrayInputStream(original))) {
+			pageNum = session.getPageCount();
+		}
+	}
+
+	@Test
+	public void testFingerprint() {
+		try {
+			List<String> fingerprints = PdfService.fingerprint(new ByteArrayInputStream(original));
+			assertEquals(pageNum, fingerprints.size());
+			assertEquals(fingerprints, PdfService.fingerprint(new ByteArrayInputStream(original)));
+
+			ByteArrayOutputStream resaved = new ByteArrayOutputStream();
+			int[] pagesIdx = new int[pageNum];
+			for (int i = 0; i < pageNum; i++) {
+				pagesIdx[i] = i;
+			}
+			PdfService.split(new ByteArrayInputStream(original), pagesIdx, resaved);
+			assertEquals(fingerprints, PdfService.fingerprint(new ByteArrayInputStream(resaved.toByteArray())));
+
+			List<String> modifiedFingerprints = PdfService.fingerprint(new ByteArrayInputStream(modified));
+			assertNotEquals(fingerprints.get(0), modifiedFingerprints.get(0));
+			assertEquals(fingerprints.subList(1, pageNum), modifiedFingerprints.subList(1, pageNum));
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testFingerprintWithLink() {
+		try {
+			ByteArrayOutputStream linked = new ByteArrayOutputStream();
+			try (PDDocument doc = PDDocument.load(original)) {
+				PDPageXYZDestination dest = new PDPageXYZDestination();
+				dest.setPage(doc.getPage(0));
+				PDAnnotationLink link = new PDAnnotationLink();
+				link.setRectangle(new PDRectangle(72, 72, 100, 20));
+				link.setDestination(dest);
+				doc.getPage(1).getAnnotations().add(link);
+				doc.save(linked);
+			}
+			ByteArrayOutputStream linkedModified = new ByteArrayOutputStream();
+			try (InputStream imgStream = new FileInputStream(IMG_PATH)) {
+				PdfService.draw(new ByteArrayInputStream(linked.toByteArray()), 0, imgStream, 1, 1, linkedModified);
+			}
+
+			List<String> fingerprints = PdfService.fingerprint(new ByteArrayInputStream(linked.toByteArray()));
+			List<String> modifiedFingerprints = PdfService.fingerprint(new ByteArrayInputStream(linkedModified.toByteArray()));
+			assertNotEquals(PdfService.fingerprint(new ByteArrayInputStream(original)).get(1), fingerprints.get(1));
+			assertNotEquals(fingerprints.get(0), modifiedFingerprints.get(0));
+			assertEquals(fingerprints.subList(1, pageNum), modifiedFingerprints.subList(1, pageNum));
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testReadIncrementally() {
+		try {
+			IncrementalService service = new IncrementalService(Files.createTempDirectory("incremental").toFile());
+			List<String> texts = service.read(DOC_NAME, new ByteArrayInputStream(original), null);
+			assertEquals(pageNum, texts.size());
+			assertEquals(pageNum, service.getProcessedCount());
+			assertEquals(0, service.getReusedCount());
+
+			assertEquals(Collections.singletonList(0), service.changedPages(DOC_NAME, new ByteArrayInputStream(modified), null));
+			List<String> modifiedTexts = service.read(DOC_NAME, new ByteArrayInputStream(modified), null);
+			assertEquals(pageNum + 1, service.getProcessedCount());
+			assertEquals(pageNum - 1, service.getReusedCount());
+			try (PdfSession session = new PdfSession(new ByteArrayInputStream(modified))) {
+				for (int i = 0; i < pageNum; i++) {
+					assertEquals(session.read(i, i), modifiedTexts.get(i));
+				}
+			}
+			assertTrue(service.changedPages(DOC_NAME, new ByteArrayInputStream(modified), null).isEmpty());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCaptureIncrementally() {
+		try {
+			IncrementalService service = new IncrementalService(Files.createTempDirectory("incremental").toFile());
+			List<File> images = service.capture(DOC_NAME, new ByteArrayInputStream(original), null, 36);
+			List<File> modifiedImages = service.capture(DOC_NAME, new ByteArrayInputStream(modified), null, 36);
+			assertEquals(pageNum + 1, service.getProcessedCount());
+			assertEquals(pageNum - 1, service.getReusedCount());
+			assertNotEquals(images.get(0), modifiedImages.get(0));
+			assertEquals(images.subList(1, pageNum), modifiedImages.subList(1, pageNum));
+			for (File image : modifiedImages) {
+				assertTrue(image.isFile());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testPageEviction() {
+		try {
+			File cacheDir = Files.createTempDirectory("incremental").toFile();
+			IncrementalService service = new IncrementalService(cacheDir, 1);
+			List<File> images = service.capture(DOC_NAME, new ByteArrayInputStream(original), null, 36);
+			List<File> modifiedImages = service.capture(DOC_NAME, new ByteArrayInputStream(modified), null, 36);
+			assertFalse(images.get(0).exists());
+			long pageBytes = 0;
+			for (File image : modifiedImages) {
+				assertTrue(image.isFile());
+				pageBytes += image.length();
+			}
+			assertEquals(pageBytes, service.getPageBytes());
+			assertEquals(pageBytes, new IncrementalService(cacheDir, 1).getPageBytes());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+}
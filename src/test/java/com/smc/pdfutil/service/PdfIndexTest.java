@@ -0,0 +1,167 @@
+package com.smc.pdfutil.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PdfIndexTest {
+	private static final String BASE_PATH = System.getProperty("user.dir") + File.separator + "data" + File.separator;
+	private static final String PDF1_PATH = BASE_PATH + "PDF_1.pdf";
+	private static final String PDF2_PATH = BASE_PATH + "PDF_2.pdf";
+
+	private File indexDir;
+
+	@Before
+	public void setUp() throws IOException {
+		indexDir = Files.createTempDirectory("pdf_index").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = indexDir.listFiles();
+		if (null != files) {
+			for (File f : files) {
+				assertTrue(f.delete());
+			}
+		}
+		assertTrue(indexDir.delete());
+	}
+
+	@Test
+	public void testSearch() {
+		try (PdfIndex index = new PdfIndex(indexDir);
+			 FileInputStream inputStream = new FileInputStream(PDF2_PATH)) {
+			index.add(Collections.singletonList(new File(PDF1_PATH)), null);
+			index.add("PDF_2", inputStream, null);
+			assertEquals(2, index.getDocCount());
+			assertEquals(new PdfIndex.Hit("PDF_2", 1), index.search("line").get(3));
+
+			assertEquals(4, index.search("line").size());
+			assertEquals(new File(PDF1_PATH).getAbsolutePath(), index.search("line").get(0).getDocName());
+
+			String[] words = {"Alpha", "Beta", "Gamma"};
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			PdfService.create(3, (pageIdx, content) -> content.write(("BT /F1 12 Tf 72 720 Td (Contract "
+					+ words[pageIdx] + ", Total) Tj ET").getBytes("US-ASCII")), outputStream);
+			index.add("contract", new ByteArrayInputStream(outputStream.toByteArray()), null);
+			List<PdfIndex.Hit> hits = index.search("BETA");
+			assertEquals(1, hits.size());
+			assertEquals(new PdfIndex.Hit("contract", 1), hits.get(0));
+			assertEquals(3, index.search("contract total").size());
+			assertTrue(index.search("beta line").isEmpty());
+			assertTrue(index.search("missing").isEmpty());
+			assertTrue(index.search("").isEmpty());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testReopenAndReplace() {
+		try (PdfIndex index = new PdfIndex(indexDir);
+			 FileInputStream inputStream = new FileInputStream(PDF1_PATH)) {
+			index.add("doc", inputStream, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		try (PdfIndex index = new PdfIndex(indexDir)) {
+			assertEquals(2, index.search("pdf 1").size());
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			PdfService.create(1, (pageIdx, content) ->
+					content.write("BT /F1 12 Tf 72 720 Td (Hello Index) Tj ET".getBytes("US-ASCII")), outputStream);
+			index.add("doc", new ByteArrayInputStream(outputStream.toByteArray()), null);
+			assertEquals(1, index.getDocCount());
+			assertTrue(index.search("pdf").isEmpty());
+			assertEquals(1, index.search("hello index").size());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testMergeAndCompact() {
+		try (PdfIndex index = new PdfIndex(indexDir)) {
+			for (int i = 0; i < 64; i++) {
+				int docIdx = i;
+				ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+				PdfService.create(1, (pageIdx, content) -> content.write(("BT /F1 12 Tf 72 720 Td (Common Doc"
+						+ docIdx + ") Tj ET").getBytes("US-ASCII")), outputStream);
+				index.add("doc" + docIdx, new ByteArrayInputStream(outputStream.toByteArray()), null);
+			}
+			assertEquals(64, index.getDocCount());
+			assertTrue(index.getSegmentCount() <= 7);
+			assertEquals(64, index.search("common").size());
+			assertEquals(new PdfIndex.Hit("doc42", 0), index.search("doc42").get(0));
+
+			for (int i = 0; i < 20; i++) {
+				ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+				PdfService.create(1, (pageIdx, content) ->
+						content.write("BT /F1 12 Tf 72 720 Td (Replaced) Tj ET".getBytes("US-ASCII")), outputStream);
+				index.add("doc0", new ByteArrayInputStream(outputStream.toByteArray()), null);
+			}
+			assertEquals(64, index.getDocCount());
+			assertEquals(63, index.search("common").size());
+			assertEquals(1, index.search("replaced").size());
+
+			index.compact();
+			assertEquals(1, index.getSegmentCount());
+			assertEquals(1, indexDir.listFiles().length);
+			assertEquals(63, index.search("common").size());
+			assertEquals(1, index.search("replaced").size());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		try (PdfIndex index = new PdfIndex(indexDir)) {
+			assertEquals(64, index.getDocCount());
+			assertEquals(new PdfIndex.Hit("doc0", 0), index.search("replaced").get(0));
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testLeftoverSegmentDropped() {
+		File leftover = new File(indexDir, "leftover");
+		try (PdfIndex index = new PdfIndex(indexDir)) {
+			index.add(Collections.singletonList(new File(PDF1_PATH)), null);
+			File[] files = indexDir.listFiles();
+			assertNotNull(files);
+			Files.copy(files[0].toPath(), leftover.toPath());
+			index.add(Collections.singletonList(new File(PDF1_PATH)), null);
+			assertEquals(1, index.getSegmentCount());
+			// A merged segment whose delete failed, as on Windows while it is still mapped
+			Files.move(leftover.toPath(), files[0].toPath());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		try (PdfIndex index = new PdfIndex(indexDir)) {
+			assertEquals(1, index.getSegmentCount());
+			assertEquals(1, index.getDocCount());
+			assertEquals(1, indexDir.listFiles().length);
+			assertFalse(index.search("pdf").isEmpty());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class PdfLinearizerTest {
+	private static final String PDF_1 = "data/PDF_1.pdf";
+	private static final String PDF_2 = "data/PDF_2.pdf";
+	private static final String OWNER_PWD = "OWNER_PWD";
+	private static final String USER_PWD = "USER_PWD";
+
+	private static final Pattern LIN_DICT = Pattern.compile(
+			"<< /Linearized 1 /L +(\\d+) /H \\[ +(\\d+) +(\\d+) \\] /O +(\\d+) /E +(\\d+) /N (\\d+) /T +(\\d+) >>");
+
+	private static final SaveOptions LINEARIZED = SaveOptions.DEFAULT.withLinearized(true);
+
+	private static byte[] linearize(byte[] pdf) throws IOException {
+		try (PDDocument doc = PDDocument.load(pdf)) {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			PdfService.save(doc, LINEARIZED, outputStream);
+			return outputStream.toByteArray();
+		}
+	}
+
+	private static void assertLinearized(byte[] pdf, int pageNum) throws IOException {
+		String head = new String(pdf, 0, Math.min(pdf.length, 1024), StandardCharsets.ISO_8859_1);
+		Matcher m = LIN_DICT.matcher(head);
+		assertTrue(m.find());
+		assertEquals(pdf.length, Long.parseLong(m.group(1)));
+		long hintOffset = Long.parseLong(m.group(2));
+		assertTrue(new String(pdf, (int) hintOffset, 32, StandardCharsets.ISO_8859_1).contains(" 0 obj"));
+		assertTrue(Long.parseLong(m.group(5)) <= pdf.length);
+		assertEquals(pageNum, Integer.parseInt(m.group(6)));
+		long t = Long.parseLong(m.group(7));
+		assertEquals("\n0000000000 65535 f", new String(pdf, (int) t, 19, StandardCharsets.ISO_8859_1));
+		String firstPage = m.group(4) + " 0 obj";
+		assertEquals(firstPage, new String(pdf, (int) (hintOffset + Long.parseLong(m.group(3))), firstPage.length(), StandardCharsets.ISO_8859_1));
+		try (PDDocument doc = PDDocument.load(pdf)) {
+			assertEquals(pageNum, doc.getNumberOfPages());
+		}
+	}
+
+	@Test
+	public void testSplit() {
+		try (InputStream inputStream = new FileInputStream(PDF_1)) {
+			ByteArrayOutputStream plainStream = new ByteArrayOutputStream();
+			PdfService.split(inputStream, new int[] {0, 1}, plainStream);
+			byte[] pdf = linearize(plainStream.toByteArray());
+			assertLinearized(pdf, 2);
+			assertEquals(PdfService.read(new ByteArrayInputStream(plainStream.toByteArray())),
+					PdfService.read(new ByteArrayInputStream(pdf)));
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testMerge() {
+		try (InputStream inputStream1 = new FileInputStream(PDF_1);
+			 InputStream inputStream2 = new FileInputStream(PDF_2)) {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			Map<InputStream, String> map = new HashMap<> ();
+			map.put(inputStream1, "");
+			map.put(inputStream2, "");
+			PdfService.merge(map.entrySet().stream(), outputStream);
+			byte[] pdf = linearize(outputStream.toByteArray());
+			try (PDDocument doc = PDDocument.load(pdf)) {
+				assertLinearized(pdf, doc.getNumberOfPages());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCreate() {
+		try {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			PdfService.create(3, null, LINEARIZED, outputStream);
+			assertLinearized(outputStream.toByteArray(), 3);
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testEncryptedNotLinearized() {
+		try (PDDocument doc = PDDocument.load(new File(PDF_1))) {
+			doc.protect(new StandardProtectionPolicy(OWNER_PWD, USER_PWD, new AccessPermission()));
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			PdfService.save(doc, LINEARIZED, outputStream);
+			String head = new String(outputStream.toByteArray(), 0, 1024, StandardCharsets.ISO_8859_1);
+			assertFalse(head.contains("/Linearized"));
+			assertTrue(PdfService.read(new ByteArrayInputStream(outputStream.toByteArray()), USER_PWD).length() > 0);
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testNoPages() {
+		try (PDDocument doc = new PDDocument()) {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			PdfService.save(doc, LINEARIZED, outputStream);
+			byte[] pdf = outputStream.toByteArray();
+			assertFalse(new String(pdf, StandardCharsets.ISO_8859_1).contains("/Linearized"));
+			try {
+				PdfLinearizer.linearize(pdf, new ByteArrayOutputStream());
+				fail();
+			} catch (IOException e) {
+				assertEquals("Cannot linearize PDF without pages", e.getMessage());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+}
@@ -80,6 +80,28 @@ public class PdfServiceTest {
 		}
 	}
 
+	@Test
+	public void testCreateWithContent() {
+		String outputPath = OUTPUT_PATH + "create_content_output.pdf";
+
+		try (FileOutputStream outputStream = new FileOutputStream(outputPath)) {
+			PdfService.create(3, (pageIdx, content) ->
+					content.write(("BT /F1 12 Tf 72 720 Td (Page " + (pageIdx + 1) + ") Tj ET").getBytes("US-ASCII")), outputStream);
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		try (FileInputStream resultStream = new FileInputStream(outputPath)) {
+			String resultStr = PdfService.read(resultStream);
+			assertTrue(resultStr.contains("Page 1"));
+			assertTrue(resultStr.contains("Page 3"));
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
 	@Test
 	public void testRead() {
 		try (FileInputStream inputStream1 = new FileInputStream(PDF1_PATH);
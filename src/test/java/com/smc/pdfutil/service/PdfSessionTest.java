@@ -0,0 +1,123 @@
+package com.smc.pdfutil.service;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class PdfSessionTest {
+	private static final String BASE_PATH = System.getProperty("user.dir") + File.separator + "data" + File.separator;
+	private static final String PDF1_PATH = BASE_PATH + "PDF_1.pdf";
+	private static final String EN_PDF1_PATH = BASE_PATH + "encrypted_PDF_1.pdf";
+	private static final String USER_PWD = "USER_PWD";
+
+	@Test
+	public void testRead() {
+		try (FileInputStream inputStream = new FileInputStream(PDF1_PATH);
+			 FileInputStream sessionStream = new FileInputStream(PDF1_PATH);
+			 PdfSession session = new PdfSession(sessionStream)) {
+			String text = PdfService.read(inputStream);
+			assertEquals(2, session.getPageCount());
+			assertEquals(text, session.read());
+			assertEquals(text, session.read(0, 0) + session.read(1, 1));
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testReadEncrypted() {
+		try (FileInputStream inputStream = new FileInputStream(EN_PDF1_PATH);
+			 PdfSession session = new PdfSession(inputStream, USER_PWD)) {
+			assertTrue(session.read().contains("PDF 1 Page 2 Line 5"));
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCapture() {
+		try (FileInputStream inputStream = new FileInputStream(PDF1_PATH);
+			 PdfSession session = new PdfSession(inputStream, null, 4)) {
+			ByteArrayOutputStream full = new ByteArrayOutputStream();
+			ByteArrayOutputStream area = new ByteArrayOutputStream();
+			session.capture(0, 100f, full);
+			session.capture(1, 1, 2, 3, 4, 100f, area);
+			assertTrue(full.size() > 0);
+			assertTrue(area.size() > 0);
+			assertEquals(session.render(0, 100f).getWidth(), session.render(1, 100f).getWidth());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCaptureProgressive() {
+		try (FileInputStream inputStream = new FileInputStream(PDF1_PATH);
+			 PdfSession session = new PdfSession(inputStream)) {
+			ByteArrayOutputStream previewStream = new ByteArrayOutputStream();
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			assertTrue(session.captureProgressive(0, 36, 144, previewStream, outputStream, new AtomicBoolean()));
+			BufferedImage preview = ImageIO.read(new ByteArrayInputStream(previewStream.toByteArray()));
+			BufferedImage img = ImageIO.read(new ByteArrayInputStream(outputStream.toByteArray()));
+			assertEquals(img.getWidth(), preview.getWidth() * 4, 4);
+			assertEquals(img.getHeight(), preview.getHeight() * 4, 4);
+
+			ByteArrayOutputStream captureStream = new ByteArrayOutputStream();
+			session.capture(0, 144, captureStream);
+			assertArrayEquals(captureStream.toByteArray(), outputStream.toByteArray());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCaptureProgressiveCancelled() {
+		try (FileInputStream inputStream = new FileInputStream(PDF1_PATH);
+			 PdfSession session = new PdfSession(inputStream)) {
+			ByteArrayOutputStream previewStream = new ByteArrayOutputStream();
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			assertFalse(session.captureProgressive(0, 36, 144, previewStream, outputStream, new AtomicBoolean(true)));
+			assertEquals(0, previewStream.size());
+			assertEquals(0, outputStream.size());
+
+			// the session is still usable after a cancelled capture
+			assertTrue(session.captureProgressive(0, 36, 72, previewStream, outputStream, null));
+			assertTrue(outputStream.size() > 0);
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testClose() {
+		try (FileInputStream inputStream = new FileInputStream(PDF1_PATH)) {
+			PdfSession session = new PdfSession(inputStream);
+			session.read();
+			session.close();
+			session.close();
+			try {
+				session.read();
+				fail();
+			} catch (IOException e) {
+				assertEquals("PDF session is closed", e.getMessage());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.smc.pdfutil.service;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+	private static final String PDF1_PATH = "data/PDF_1.pdf";
+	private static final String EN_PDF1_PATH = "data/encrypted_PDF_1.pdf";
+	private static final String WATERMARK_PATH = "data/watermark.pdf";
+	private static final String USER_PWD = "USER_PWD";
+	private static final long MB = 1024 * 1024;
+	private static final long HOUR = 3600 * 1000;
+
+	@Test
+	public void testSplitAndWatermark() {
+		try {
+			ResultCache cache = new ResultCache(16 * MB, HOUR);
+			byte[] pdf = Files.readAllBytes(new File(PDF1_PATH).toPath());
+			ByteArrayOutputStream first = new ByteArrayOutputStream();
+			ByteArrayOutputStream second = new ByteArrayOutputStream();
+			cache.split(new ByteArrayInputStream(pdf), null, new int[] {0}, first);
+			cache.split(new ByteArrayInputStream(pdf), null, new int[] {0}, second);
+			assertArrayEquals(first.toByteArray(), second.toByteArray());
+			cache.split(new ByteArrayInputStream(pdf), null, new int[] {1}, new ByteArrayOutputStream());
+			assertEquals(1, cache.getHitCount());
+			assertEquals(2, cache.getMissCount());
+
+			byte[] watermark = Files.readAllBytes(new File(WATERMARK_PATH).toPath());
+			ByteArrayOutputStream watermarked = new ByteArrayOutputStream();
+			cache.watermark(new ByteArrayInputStream(pdf), null, new ByteArrayInputStream(watermark), null, watermarked);
+			cache.watermark(new ByteArrayInputStream(pdf), null, new ByteArrayInputStream(watermark), null, new ByteArrayOutputStream());
+			assertEquals(2, cache.getHitCount());
+			assertEquals(PdfService.read(new FileInputStream(PDF1_PATH)), PdfService.read(new ByteArrayInputStream(watermarked.toByteArray())));
+			assertEquals(0.4, cache.getHitRatio(), 1e-9);
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testGetInfoKeyedByPassword() {
+		try {
+			ResultCache cache = new ResultCache(16 * MB, HOUR);
+			byte[] pdf = Files.readAllBytes(new File(EN_PDF1_PATH).toPath());
+			assertEquals(PdfService.getInfo(new ByteArrayInputStream(pdf), USER_PWD), cache.getInfo(new ByteArrayInputStream(pdf), USER_PWD));
+			cache.getInfo(new ByteArrayInputStream(pdf), USER_PWD);
+			assertEquals(1, cache.getHitCount());
+			try {
+				cache.getInfo(new ByteArrayInputStream(pdf), "WRONG_PWD");
+				fail();
+			} catch (IOException e) {
+				assertEquals(2, cache.getMissCount());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testGetInfoLargeValue() {
+		try {
+			StringBuilder keywords = new StringBuilder();
+			while (keywords.length() <= 70000) {
+				keywords.append("keyword \u00e9 ");
+			}
+			HashMap<String, String> infoMap = new HashMap<>();
+			infoMap.put("Keywords", keywords.toString());
+			ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+			PdfService.setInfo(new FileInputStream(PDF1_PATH), infoMap, pdf);
+
+			ResultCache cache = new ResultCache(16 * MB, HOUR);
+			Map<String, String> info = cache.getInfo(new ByteArrayInputStream(pdf.toByteArray()), null);
+			assertEquals(keywords.toString(), info.get("Keywords"));
+			assertEquals(PdfService.getInfo(new ByteArrayInputStream(pdf.toByteArray())), info);
+			assertEquals(info, cache.getInfo(new ByteArrayInputStream(pdf.toByteArray()), null));
+			assertEquals(1, cache.getHitCount());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCoalesce() {
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			ResultCache cache = new ResultCache(16 * MB, HOUR);
+			byte[] pdf = Files.readAllBytes(new File(PDF1_PATH).toPath());
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<byte[]>> futures = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(pool.submit(() -> {
+					start.await();
+					ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+					cache.capture(new ByteArrayInputStream(pdf), null, 0, 96, outputStream);
+					return outputStream.toByteArray();
+				}));
+			}
+			start.countDown();
+			byte[] png = futures.get(0).get();
+			for (Future<byte[]> future : futures) {
+				assertArrayEquals(png, future.get());
+			}
+			assertEquals(1, cache.getMissCount());
+			assertEquals(7, cache.getCoalescedCount() + cache.getHitCount());
+		} catch (IOException | InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+			fail();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testTtlAndDiskTier() {
+		try {
+			File diskDir = Files.createTempDirectory("result_cache").toFile();
+			byte[] pdf = Files.readAllBytes(new File(PDF1_PATH).toPath());
+
+			ResultCache cache = new ResultCache(16 * MB, diskDir, 64 * MB, HOUR);
+			cache.split(new ByteArrayInputStream(pdf), null, new int[] {0}, new ByteArrayOutputStream());
+			ResultCache restarted = new ResultCache(16 * MB, diskDir, 64 * MB, HOUR);
+			restarted.split(new ByteArrayInputStream(pdf), null, new int[] {0}, new ByteArrayOutputStream());
+			assertEquals(1, restarted.getDiskHitCount());
+			assertEquals(0, restarted.getMissCount());
+
+			ResultCache expiring = new ResultCache(16 * MB, 1);
+			expiring.split(new ByteArrayInputStream(pdf), null, new int[] {0}, new ByteArrayOutputStream());
+			Thread.sleep(10);
+			expiring.split(new ByteArrayInputStream(pdf), null, new int[] {0}, new ByteArrayOutputStream());
+			assertEquals(2, expiring.getMissCount());
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testDiskHitKeepsExpiry() {
+		try {
+			File diskDir = Files.createTempDirectory("result_cache").toFile();
+			byte[] pdf = Files.readAllBytes(new File(PDF1_PATH).toPath());
+
+			new ResultCache(16 * MB, diskDir, 64 * MB, 1000).split(new ByteArrayInputStream(pdf), null, new int[] {0}, new ByteArrayOutputStream());
+			Thread.sleep(600);
+			ResultCache restarted = new ResultCache(16 * MB, diskDir, 64 * MB, 1000);
+			restarted.split(new ByteArrayInputStream(pdf), null, new int[] {0}, new ByteArrayOutputStream());
+			assertEquals(1, restarted.getDiskHitCount());
+			Thread.sleep(600);
+			restarted.split(new ByteArrayInputStream(pdf), null, new int[] {0}, new ByteArrayOutputStream());
+			assertEquals(0, restarted.getHitCount());
+			assertEquals(1, restarted.getMissCount());
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+}
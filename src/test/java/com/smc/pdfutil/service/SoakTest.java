@@ -0,0 +1,352 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Soak test driving a mix of {@link PdfService} and {@link CompressService} operations from many threads for a set
+ * duration, on sample documents generated locally. Throughput, latency percentiles, heap after GC, RSS, open file
+ * handles and scratch files left in {@code java.io.tmpdir} are sampled at a fixed interval, and the test fails if any
+ * of them trends the wrong way. Scratch files are those of PDFBox, {@link StreamingPdfWriter} and the test itself;
+ * the {@code soak} profile points {@code java.io.tmpdir} at {@code target/soak-tmp} so that they are not mixed with
+ * files of other processes.
+ * <p>
+ * Skipped unless {@code soak.seconds} is set, e.g. {@code mvn test -Psoak} or
+ * {@code mvn test -Dtest=SoakTest -Dsoak.seconds=600 -Dsoak.threads=16 -Dsoak.mix=read:4,capture:2,draw:1}.
+ * The samples are written to {@code target/soak-report.tsv}.
+ */
+public class SoakTest {
+	private static final Logger log = LoggerFactory.getLogger(SoakTest.class);
+
+	private static final String[] OPERATIONS = {"read", "capture", "split", "merge", "draw", "watermark", "encrypt", "setInfo",
+			"compress", "create", "linearize", "stamp"};
+	private static final String DEF_MIX = "read:4,capture:2,split:2,merge:1,draw:1,watermark:1,encrypt:1,setInfo:1,"
+			+ "compress:1,create:1,linearize:1,stamp:1";
+	/**
+	 * Options of the linearize operation, which also runs the shared stream encoder pool
+	 */
+	private static final SaveOptions LINEARIZED = new SaveOptions().withLinearized(true).withEncodingThreads(2);
+	private static final File REPORT = new File("target", "soak-report.tsv");
+	private static final String[] SCRATCH_PREFIXES = {"PDFBox", "pdfutil-", "soak"};
+
+	private File scratchDir;
+	private byte[] textPdf;
+	private byte[] imagePdf;
+	private byte[] watermarkPdf;
+	private byte[] img;
+
+	private final AtomicLong errors = new AtomicLong();
+	private final Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+
+	@Test
+	public void testSoak() throws Exception {
+		String seconds = System.getProperty("soak.seconds");
+		Assume.assumeTrue("soak.seconds is not set", seconds != null && !seconds.isEmpty());
+		long durationMillis = (long) (Double.parseDouble(seconds) * 1000);
+		int threads = Integer.getInteger("soak.threads", Runtime.getRuntime().availableProcessors() * 2);
+		long intervalMillis = Long.getLong("soak.interval", 5) * 1000;
+		double tolerance = Double.parseDouble(System.getProperty("soak.tolerance", "0.25"));
+		List<String> mix = parseMix(System.getProperty("soak.mix", DEF_MIX));
+
+		scratchDir = new File(System.getProperty("java.io.tmpdir"));
+		if (!scratchDir.isDirectory() && !scratchDir.mkdirs()) {
+			throw new IOException("Cannot create temp directory: " + scratchDir);
+		}
+		createSamples();
+
+		List<long[]> samples = new ArrayList<>();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long end = System.currentTimeMillis() + durationMillis;
+		try (PrintWriter report = new PrintWriter(new OutputStreamWriter(openReport(), StandardCharsets.UTF_8))) {
+			report.println("elapsed_s\tops\tops_per_s\tp50_ms\tp95_ms\tp99_ms\theap_mb\trss_mb\tfds\tscratch_files\tgc_count\tgc_ms\terrors");
+			for (int i = 0; i < threads; i++) {
+				pool.submit(() -> {
+					while (System.currentTimeMillis() < end && !Thread.currentThread().isInterrupted()) {
+						run(mix.get(ThreadLocalRandom.current().nextInt(mix.size())));
+					}
+				});
+			}
+			long start = System.currentTimeMillis();
+			while (System.currentTimeMillis() < end) {
+				Thread.sleep(Math.min(intervalMillis, Math.max(end - System.currentTimeMillis(), 1)));
+				long[] sample = sample(System.currentTimeMillis() - start, intervalMillis);
+				samples.add(sample);
+				report.println(format(sample));
+				report.flush();
+				log.info("Soak: {}", format(sample));
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		}
+
+		assertEquals("Failed operations", 0, errors.get());
+		assertTrue("Too few samples, raise soak.seconds or lower soak.interval", samples.size() >= 4);
+		// the first quarter is warm-up (JIT, font cache, pools growing to their working size)
+		List<long[]> steady = samples.subList(samples.size() / 4, samples.size());
+		assertNoTrend("throughput (ops/s)", steady, 2, -1, tolerance, 0);
+		assertNoTrend("p95 latency (ms)", steady, 4, 1, tolerance, 5);
+		assertNoTrend("heap after GC (MB)", steady, 6, 1, tolerance, 16);
+		assertNoTrend("RSS (MB)", steady, 7, 1, tolerance, 64);
+		assertNoTrend("open file handles", steady, 8, 1, 0, 8);
+		assertNoTrend("scratch files", steady, 9, 1, 0, 8);
+	}
+
+	private static List<String> parseMix(String spec) {
+		List<String> mix = new ArrayList<>();
+		for (String item : spec.split(",")) {
+			String[] parts = item.trim().split(":");
+			if (!Arrays.asList(OPERATIONS).contains(parts[0])) {
+				throw new IllegalArgumentException("Unknown soak operation: " + parts[0]);
+			}
+			for (int i = 0; i < (parts.length > 1 ? Integer.parseInt(parts[1]) : 1); i++) {
+				mix.add(parts[0]);
+			}
+		}
+		return mix;
+	}
+
+	private void createSamples() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PdfService.create(20, SoakTest::writeTextPage, outputStream);
+		textPdf = outputStream.toByteArray();
+
+		BufferedImage nativeImg = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = nativeImg.createGraphics();
+		g.setPaint(new GradientPaint(0, 0, Color.BLUE, 400, 300, Color.ORANGE));
+		g.fillRect(0, 0, 400, 300);
+		g.dispose();
+		ByteArrayOutputStream imgStream = new ByteArrayOutputStream();
+		ImageIO.write(nativeImg, "PNG", imgStream);
+		img = imgStream.toByteArray();
+
+		outputStream = new ByteArrayOutputStream();
+		PdfService.draw(new ByteArrayInputStream(textPdf), 0, new ByteArrayInputStream(img), 1, 1, 4, 3, outputStream);
+		imagePdf = outputStream.toByteArray();
+
+		outputStream = new ByteArrayOutputStream();
+		PdfService.create(1, (pageIdx, content) -> content.write(
+				"BT /F1 48 Tf 0.9 g 120 400 Td (CONFIDENTIAL) Tj ET".getBytes(StandardCharsets.US_ASCII)), outputStream);
+		watermarkPdf = outputStream.toByteArray();
+	}
+
+	private static void writeTextPage(int pageIdx, OutputStream content) throws IOException {
+		StringBuilder sb = new StringBuilder("BT /F1 11 Tf 72 740 Td 14 TL");
+		for (int line = 0; line < 40; line++) {
+			sb.append(" (Soak page ").append(pageIdx).append(" line ").append(line).append(" lorem ipsum dolor sit amet) '");
+		}
+		sb.append(" ET");
+		content.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private void run(String operation) {
+		long start = System.nanoTime();
+		try {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			switch (operation) {
+				case "read":
+					PdfService.read(new ByteArrayInputStream(textPdf));
+					break;
+				case "capture":
+					PdfService.capture(new ByteArrayInputStream(imagePdf), ThreadLocalRandom.current().nextInt(3), 72, outputStream);
+					break;
+				case "split":
+					PdfService.split(new ByteArrayInputStream(textPdf), new int[] {0, 5, 10}, outputStream);
+					break;
+				case "merge":
+					Map<InputStream, String> map = new LinkedHashMap<>();
+					map.put(new ByteArrayInputStream(textPdf), "");
+					map.put(new ByteArrayInputStream(imagePdf), "");
+					PdfService.merge(map.entrySet().stream(), outputStream);
+					break;
+				case "draw":
+					PdfService.draw(new ByteArrayInputStream(textPdf), 1, new ByteArrayInputStream(img), 2, 2, outputStream);
+					break;
+				case "watermark":
+					PdfService.watermark(new ByteArrayInputStream(textPdf), new ByteArrayInputStream(watermarkPdf), outputStream);
+					break;
+				case "encrypt":
+					PdfService.encrypt(new ByteArrayInputStream(textPdf), "OWNER_PWD", "USER_PWD", outputStream);
+					break;
+				case "setInfo":
+					HashMap<String, String> info = new HashMap<>();
+					info.put("Title", "Soak " + start);
+					PdfService.setInfo(new ByteArrayInputStream(textPdf), info, outputStream);
+					break;
+				case "compress":
+					File input = File.createTempFile("soak", ".pdf");
+					File output = File.createTempFile("soak", ".zip");
+					try {
+						Files.write(input.toPath(), textPdf);
+						CompressService.compress(Collections.singletonList(input), output);
+					} finally {
+						Files.deleteIfExists(input.toPath());
+						Files.deleteIfExists(output.toPath());
+					}
+					break;
+				case "create":
+					PdfService.create(20, SoakTest::writeTextPage, outputStream);
+					break;
+				case "linearize":
+					try (PDDocument doc = PDDocument.load(textPdf)) {
+						PdfService.save(doc, LINEARIZED, outputStream);
+					}
+					break;
+				case "stamp":
+					try (StampService stampService = new StampService("Soak %d")) {
+						stampService.stamp(new ByteArrayInputStream(textPdf), null, outputStream);
+					}
+					break;
+				default:
+					throw new IllegalArgumentException(operation);
+			}
+		} catch (Exception e) {
+			if (errors.incrementAndGet() <= 10) {
+				e.printStackTrace();
+			}
+		}
+		latencies.add(System.nanoTime() - start);
+	}
+
+	private long[] sample(long elapsedMillis, long intervalMillis) {
+		List<Long> interval = new ArrayList<>();
+		for (Long latency; (latency = latencies.poll()) != null;) {
+			interval.add(latency);
+		}
+		Collections.sort(interval);
+		System.gc();
+		long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		long gcCount = 0;
+		long gcMillis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += Math.max(gc.getCollectionCount(), 0);
+			gcMillis += Math.max(gc.getCollectionTime(), 0);
+		}
+		return new long[] {
+				elapsedMillis / 1000,
+				interval.size(),
+				interval.size() * 1000L / intervalMillis,
+				percentile(interval, 0.50),
+				percentile(interval, 0.95),
+				percentile(interval, 0.99),
+				heap >> 20,
+				rssBytes() >> 20,
+				openFileHandles(),
+				scratchFileCount(),
+				gcCount,
+				gcMillis,
+				errors.get()
+		};
+	}
+
+	private static long percentile(List<Long> sorted, double p) {
+		if (sorted.isEmpty()) {
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(sorted.get((int) Math.min(sorted.size() - 1, Math.ceil(p * sorted.size()) - 1)));
+	}
+
+	private static long rssBytes() {
+		try {
+			for (String line : Files.readAllLines(new File("/proc/self/status").toPath(), StandardCharsets.US_ASCII)) {
+				if (line.startsWith("VmRSS:")) {
+					return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			// not Linux
+		}
+		return -1;
+	}
+
+	private static long openFileHandles() {
+		String[] fds = new File("/proc/self/fd").list();
+		if (fds != null) {
+			return fds.length;
+		}
+		if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.UnixOperatingSystemMXBean) {
+			return ((com.sun.management.UnixOperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getOpenFileDescriptorCount();
+		}
+		return -1;
+	}
+
+	/**
+	 * Only files with the prefixes of the scratch files are counted, in case the temp directory is shared with other
+	 * processes
+	 */
+	private long scratchFileCount() {
+		String[] files = scratchDir.list((dir, name) -> {
+			for (String prefix : SCRATCH_PREFIXES) {
+				if (name.startsWith(prefix)) {
+					return true;
+				}
+			}
+			return false;
+		});
+		return files == null ? 0 : files.length;
+	}
+
+	/**
+	 * Fail if the least squares slope of the metric, over the whole steady phase, moves it in the given direction by
+	 * more than the tolerance (relative to its mean) and the absolute slack.
+	 */
+	private static void assertNoTrend(String name, List<long[]> samples, int column, int direction, double tolerance, double slack) {
+		int n = samples.size();
+		double meanX = (n - 1) / 2.0;
+		double meanY = 0;
+		for (long[] sample : samples) {
+			meanY += sample[column];
+		}
+		meanY /= n;
+		if (meanY < 0) {
+			return; // metric not available on this platform
+		}
+		double num = 0;
+		double den = 0;
+		for (int i = 0; i < n; i++) {
+			num += (i - meanX) * (samples.get(i)[column] - meanY);
+			den += (i - meanX) * (i - meanX);
+		}
+		double change = num / den * (n - 1) * direction;
+		assertFalse(String.format(Locale.ROOT, "%s trends %s by %.1f over the run (mean %.1f)", name,
+				direction > 0 ? "up" : "down", change, meanY), change > Math.abs(meanY) * tolerance + slack);
+	}
+
+	private static String format(long[] sample) {
+		StringBuilder sb = new StringBuilder();
+		for (long value : sample) {
+			sb.append(sb.length() == 0 ? "" : "\t").append(value);
+		}
+		return sb.toString();
+	}
+
+	private static OutputStream openReport() throws IOException {
+		if (!REPORT.getParentFile().isDirectory() && !REPORT.getParentFile().mkdirs()) {
+			throw new IOException("Cannot create report directory: " + REPORT.getParentFile());
+		}
+		return new FileOutputStream(REPORT);
+	}
+}
@@ -0,0 +1,129 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StampServiceTest {
+	private static final String PDF1_PATH = "data/PDF_1.pdf";
+	private static final String PDF2_PATH = "data/PDF_2.pdf";
+	private static final String EN_PDF1_PATH = "data/encrypted_PDF_1.pdf";
+	private static final String OWNER_PWD = "OWNER_PWD";
+	private static final String FONT_RESOURCE = "/org/apache/pdfbox/resources/ttf/LiberationSans-Regular.ttf";
+
+	private static String pageText(byte[] pdf, int pageIdx) throws IOException {
+		try (PDDocument doc = PDDocument.load(pdf)) {
+			PDFTextStripper stripper = new PDFTextStripper();
+			stripper.setStartPage(pageIdx + 1);
+			stripper.setEndPage(pageIdx + 1);
+			return stripper.getText(doc);
+		}
+	}
+
+	@Test
+	public void testStampAcrossDocuments() {
+		List<ByteArrayOutputStream> outputs = new ArrayList<>();
+		try (StampService service = new StampService("ACME-%06d")) {
+			Map<InputStream, String> map = new LinkedHashMap<>();
+			map.put(new FileInputStream(PDF1_PATH), "");
+			map.put(new FileInputStream(EN_PDF1_PATH), OWNER_PWD);
+			map.put(new FileInputStream(PDF2_PATH), "");
+			int docNum = service.stamp(map.entrySet().stream(), docIdx -> {
+				ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+				outputs.add(outputStream);
+				return outputStream;
+			});
+			assertEquals(3, docNum);
+
+			long number = 1;
+			for (ByteArrayOutputStream outputStream : outputs) {
+				byte[] pdf = outputStream.toByteArray();
+				int pageNum;
+				try (PDDocument doc = PDDocument.load(pdf)) {
+					pageNum = doc.getNumberOfPages();
+				}
+				assertTrue(pageText(pdf, 0).contains(String.format("ACME-%06d", number)));
+				number += pageNum;
+			}
+			assertEquals(number, service.getNextNumber());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testStampEmbeddedFont() {
+		try (StampService service = new StampService("Exhibit %d");
+			 InputStream fontStream = PDDocument.class.getResourceAsStream(FONT_RESOURCE);
+			 InputStream inputStream = new FileInputStream(PDF1_PATH)) {
+			assertNotNull(fontStream);
+			byte[] fontFile = IOUtils.toByteArray(fontStream);
+			service.setFont(new ByteArrayInputStream(fontFile));
+			service.setNextNumber(41);
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			int pageNum = service.stamp(inputStream, null, outputStream);
+			assertEquals(41 + pageNum, service.getNextNumber());
+
+			byte[] pdf = outputStream.toByteArray();
+			assertTrue(pageText(pdf, 0).contains("Exhibit 41"));
+			try (PDDocument doc = PDDocument.load(pdf)) {
+				int embedded = 0;
+				for (int i = 0; i < doc.getNumberOfPages(); i++) {
+					for (COSName name : doc.getPage(i).getResources().getFontNames()) {
+						PDFont font = doc.getPage(i).getResources().getFont(name);
+						if (font.getName().contains("LiberationSans")) {
+							assertTrue(font.isEmbedded());
+							embedded++;
+						}
+					}
+				}
+				assertEquals(pageNum, embedded);
+			}
+			// one subset for the whole PDF, far smaller than the font file
+			assertTrue(pdf.length < fontFile.length);
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCounterRestoredOnFailure() {
+		try (StampService service = new StampService("ACME-%06d")) {
+			service.setNextNumber(100);
+			try (InputStream inputStream = new FileInputStream(PDF1_PATH)) {
+				service.stamp(inputStream, "", new OutputStream() {
+					@Override
+					public void write(int b) throws IOException {
+						throw new IOException("Disk full");
+					}
+				});
+				fail();
+			} catch (IOException e) {
+				assertEquals("Disk full", e.getMessage());
+			}
+			assertEquals(100, service.getNextNumber());
+
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			try (InputStream inputStream = new FileInputStream(PDF1_PATH)) {
+				service.stamp(inputStream, "", outputStream);
+			}
+			assertTrue(pageText(outputStream.toByteArray(), 0).contains("ACME-000100"));
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+}
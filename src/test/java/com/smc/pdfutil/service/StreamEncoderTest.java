@@ -0,0 +1,82 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDPageContentStream.AppendMode;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class StreamEncoderTest {
+	private static final int PAGE_NUM = 30;
+
+	private static PDDocument createUncompressed() throws IOException {
+		PDDocument doc = new PDDocument();
+		doc.setDocumentId(42L);
+		for (int i = 0; i < PAGE_NUM; i++) {
+			PDPage page = new PDPage();
+			doc.addPage(page);
+			try (PDPageContentStream content = new PDPageContentStream(doc, page, AppendMode.OVERWRITE, false)) {
+				content.beginText();
+				content.setFont(PDType1Font.HELVETICA, 10);
+				content.setLeading(12);
+				content.newLineAtOffset(72, 720);
+				for (int line = 0; line < 50; line++) {
+					content.showText("Page " + i + " line " + line + " of an uncompressed content stream");
+					content.newLine();
+				}
+				content.endText();
+			}
+		}
+		return doc;
+	}
+
+	private static byte[] save(int threads, int level) throws IOException {
+		SaveOptions options = SaveOptions.DEFAULT.withEncodingThreads(threads).withCompressionLevel(level);
+		try (PDDocument doc = createUncompressed()) {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			PdfService.save(doc, options, outputStream);
+			return outputStream.toByteArray();
+		}
+	}
+
+	@Test
+	public void testEncodeDeterministic() {
+		try {
+			byte[] plain = save(0, -1);
+			byte[] single = save(1, -1);
+			byte[] parallel = save(4, -1);
+			assertArrayEquals(single, parallel);
+			assertTrue(parallel.length < plain.length / 2);
+			assertEquals(PdfService.read(new ByteArrayInputStream(plain)), PdfService.read(new ByteArrayInputStream(parallel)));
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCompressionLevel() {
+		try {
+			byte[] fast = save(4, 1);
+			byte[] best = save(4, 9);
+			assertTrue(best.length <= fast.length);
+			assertEquals(PdfService.read(new ByteArrayInputStream(fast)), PdfService.read(new ByteArrayInputStream(best)));
+			try {
+				SaveOptions.DEFAULT.withCompressionLevel(10);
+				fail();
+			} catch (IllegalArgumentException e) {
+				assertEquals("Invalid compression level: 10", e.getMessage());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+}
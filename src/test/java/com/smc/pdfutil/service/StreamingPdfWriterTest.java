@@ -0,0 +1,90 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class StreamingPdfWriterTest {
+	@Test
+	public void testManyPages() {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try (StreamingPdfWriter writer = new StreamingPdfWriter(outputStream, PDRectangle.A4)) {
+			for (int i = 0; i < 20000; i++) {
+				writer.addPage();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		try (PDDocument doc = PDDocument.load(outputStream.toByteArray())) {
+			assertEquals(20000, doc.getNumberOfPages());
+			assertEquals(PDRectangle.A4.getWidth(), doc.getPage(19999).getMediaBox().getWidth(), 0f);
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testEmpty() {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try (StreamingPdfWriter writer = new StreamingPdfWriter(outputStream)) {
+			assertEquals(0, writer.getPageCount());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		try (PDDocument doc = PDDocument.load(outputStream.toByteArray())) {
+			assertEquals(1, doc.getNumberOfPages());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testAddAfterClose() {
+		try {
+			StreamingPdfWriter writer = new StreamingPdfWriter(new ByteArrayOutputStream());
+			writer.close();
+			writer.addPage();
+			fail();
+		} catch (IOException e) {
+			assertEquals("PDF writer is closed", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testFailedPageSkipsTrailer() {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try (StreamingPdfWriter writer = new StreamingPdfWriter(outputStream)) {
+			writer.addPage();
+			writer.addPage((pageIdx, content) -> {
+				throw new IOException("Content failed");
+			});
+			fail();
+		} catch (IOException e) {
+			assertEquals("Content failed", e.getMessage());
+		}
+		String pdf = new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1);
+		assertFalse(pdf.contains("trailer"));
+		assertFalse(pdf.contains("%%EOF"));
+
+		try (StreamingPdfWriter writer = new StreamingPdfWriter(new ByteArrayOutputStream())) {
+			writer.abort();
+			assertTrue(writer.isFailed());
+			writer.addPage();
+			fail();
+		} catch (IOException e) {
+			assertEquals("PDF writer is aborted", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.smc.pdfutil.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WarmUpServiceTest {
+	private File fontCacheDir;
+	private String fontCacheProperty;
+
+	@Before
+	public void setUp() throws IOException {
+		fontCacheDir = Files.createTempDirectory("font_cache").toFile();
+		fontCacheProperty = System.getProperty(WarmUpService.FONT_CACHE_PROPERTY);
+	}
+
+	@After
+	public void tearDown() {
+		if (fontCacheProperty == null) {
+			System.clearProperty(WarmUpService.FONT_CACHE_PROPERTY);
+		} else {
+			System.setProperty(WarmUpService.FONT_CACHE_PROPERTY, fontCacheProperty);
+		}
+		File[] files = fontCacheDir.listFiles();
+		if (null != files) {
+			for (File f : files) {
+				assertTrue(f.delete());
+			}
+		}
+		assertTrue(fontCacheDir.delete());
+	}
+
+	@Test
+	public void testWarmUp() {
+		try {
+			long millis = WarmUpService.warmUp(fontCacheDir);
+			assertTrue(millis >= 0);
+			assertEquals(millis, WarmUpService.getLastWarmUpMillis());
+			assertEquals(fontCacheDir.getAbsolutePath(), System.getProperty(WarmUpService.FONT_CACHE_PROPERTY));
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testFontCacheWritten() {
+		// Fonts of the test JVM may already be initialized by other tests, so warm up in a fresh JVM
+		try {
+			Process process = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+					"-cp", System.getProperty("java.class.path"), WarmUpService.class.getName(), fontCacheDir.getAbsolutePath())
+					.redirectErrorStream(true)
+					.redirectOutput(ProcessBuilder.Redirect.INHERIT)
+					.start();
+			assertTrue(process.waitFor(120, TimeUnit.SECONDS));
+			assertEquals(0, process.exitValue());
+			assertTrue(new File(fontCacheDir, WarmUpService.FONT_CACHE_FILE).isFile());
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.smc.pdfutil.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ZonalExtractServiceTest {
+	private static final ZoneTemplate TEMPLATE = new ZoneTemplate()
+			.addZone("invoiceNo", 0, 0.9f, 0.7f, 2f, 0.5f)
+			.addZone("total", 0, 4.9f, 8.7f, 2f, 0.5f)
+			.addZone("note", 1, 0.9f, 0.7f, 4f, 0.5f);
+
+	private static void text(PDPageContentStream content, float x, float y, String text) throws IOException {
+		content.beginText();
+		content.setFont(PDType1Font.HELVETICA, 12);
+		content.newLineAtOffset(x * 72, 792 - y * 72);
+		content.showText(text);
+		content.endText();
+	}
+
+	private static byte[] createInvoice(int invoiceNo) throws IOException {
+		try (PDDocument doc = new PDDocument()) {
+			PDPage page = new PDPage();
+			doc.addPage(page);
+			try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+				text(content, 1, 1, "INV-" + invoiceNo);
+				text(content, 3.5f, 1, "Header outside zones");
+				text(content, 5, 9, invoiceNo + ".00");
+			}
+			PDPage notePage = new PDPage();
+			doc.addPage(notePage);
+			try (PDPageContentStream content = new PDPageContentStream(doc, notePage)) {
+				text(content, 1, 1, "Paid");
+			}
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			doc.save(outputStream);
+			return outputStream.toByteArray();
+		}
+	}
+
+	@Test
+	public void testExtract() {
+		try {
+			ZonalExtractService service = new ZonalExtractService(TEMPLATE, 1);
+			Map<String, String> fields = service.extract(new ByteArrayInputStream(createInvoice(1001)), null);
+			assertEquals("INV-1001", fields.get("invoiceNo"));
+			assertEquals("1001.00", fields.get("total"));
+			assertEquals("Paid", fields.get("note"));
+			assertEquals(3, fields.size());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testExtractParallel() {
+		try {
+			Map<InputStream, String> map = new LinkedHashMap<>();
+			for (int i = 0; i < 10; i++) {
+				map.put(new ByteArrayInputStream(createInvoice(2000 + i)), "");
+			}
+			List<Map<String, String>> results = new ZonalExtractService(TEMPLATE, 4).extract(map.entrySet().stream());
+			assertEquals(10, results.size());
+			for (int i = 0; i < 10; i++) {
+				assertEquals("INV-" + (2000 + i), results.get(i).get("invoiceNo"));
+				assertEquals((2000 + i) + ".00", results.get(i).get("total"));
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testDuplicateZone() {
+		try {
+			new ZoneTemplate().addZone("total", 0, 0, 0, 1, 1).addZone("total", 1, 0, 0, 1, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Duplicate zone: total", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testQueuedInputsClosedOnFailure() {
+		AtomicBoolean queuedClosed = new AtomicBoolean();
+		List<Map.Entry<InputStream, String>> sources = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			sources.add(new AbstractMap.SimpleEntry<>(new InputStream() {
+				@Override
+				public int read() throws IOException {
+					try {
+						Thread.sleep(60000);
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException("Read interrupted");
+					}
+					return -1;
+				}
+			}, ""));
+		}
+		sources.add(new AbstractMap.SimpleEntry<>(new ByteArrayInputStream(new byte[0]) {
+			@Override
+			public void close() {
+				queuedClosed.set(true);
+			}
+		}, ""));
+		int[] next = {0};
+		Stream<Map.Entry<InputStream, String>> stream = Stream.generate(() -> {
+			if (next[0] == sources.size()) {
+				throw new IllegalStateException("Source failed");
+			}
+			return sources.get(next[0]++);
+		});
+		try {
+			new ZonalExtractService(TEMPLATE, 2).extract(stream);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("Source failed", e.getMessage());
+			assertTrue(queuedClosed.get());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+}